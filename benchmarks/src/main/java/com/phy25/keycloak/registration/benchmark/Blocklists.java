@@ -0,0 +1,35 @@
+package com.phy25.keycloak.registration.benchmark;
+
+/**
+ * Generated comma-separated blocklists and username patterns.
+ */
+final class Blocklists {
+
+    static final String SIMPLE_REGEX = "^[a-z0-9_]{3,20}$";
+    static final String COMPLEX_REGEX = "^(?!.*__)(?![0-9])[a-z0-9]+(?:[._-][a-z0-9]+){0,4}$";
+
+    private Blocklists() {
+    }
+
+    static String generate(int size) {
+        StringBuilder list = new StringBuilder(size * 12);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                list.append(',');
+            }
+            list.append("reserved").append(i);
+        }
+        return list.toString();
+    }
+
+    static String regex(String complexity) {
+        switch (complexity) {
+            case "simple":
+                return SIMPLE_REGEX;
+            case "complex":
+                return COMPLEX_REGEX;
+            default:
+                return null;
+        }
+    }
+}
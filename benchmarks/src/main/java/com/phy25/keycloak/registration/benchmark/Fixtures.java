@@ -0,0 +1,121 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.jboss.resteasy.spi.HttpRequest;
+import org.keycloak.Config;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.events.EventBuilder;
+import org.keycloak.events.EventType;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Stubbed contexts for driving the form actions and the authenticator outside
+ * of a Keycloak server. The user store never finds a user.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Provider options: every lookup answers with the given default.
+     */
+    static Config.Scope defaultScope() {
+        Map<String, Function<Object[], Object>> answers = new HashMap<String, Function<Object[], Object>>();
+        Function<Object[], Object> defaultArgument = args -> args != null && args.length > 1 ? args[1] : null;
+        answers.put("get", defaultArgument);
+        answers.put("getInt", defaultArgument);
+        answers.put("getLong", defaultArgument);
+        answers.put("getBoolean", defaultArgument);
+        return Stubs.stub(Config.Scope.class, answers);
+    }
+
+    static AuthenticatorConfigModel config(String id, Map<String, String> values) {
+        AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+        config.setId(id);
+        config.setAlias(id);
+        config.setConfig(values);
+        return config;
+    }
+
+    static MultivaluedMap<String, String> form(String... keyValues) {
+        MultivaluedMap<String, String> form = new MultivaluedHashMap<String, String>();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            form.putSingle(keyValues[i], keyValues[i + 1]);
+        }
+        return form;
+    }
+
+    static ValidationContext validationContext(MultivaluedMap<String, String> form, AuthenticatorConfigModel config) {
+        Shared shared = new Shared(form);
+        Map<String, Function<Object[], Object>> answers = new HashMap<String, Function<Object[], Object>>();
+        answers.put("getHttpRequest", args -> shared.request);
+        answers.put("getEvent", args -> shared.event);
+        answers.put("getRealm", args -> shared.realm);
+        answers.put("getSession", args -> shared.session);
+        answers.put("getConnection", args -> shared.connection);
+        answers.put("getAuthenticatorConfig", args -> config);
+        return Stubs.stub(ValidationContext.class, answers);
+    }
+
+    static AuthenticationFlowContext flowContext(MultivaluedMap<String, String> form, AuthenticatorConfigModel config) {
+        Shared shared = new Shared(form);
+        shared.event.event(EventType.RESET_PASSWORD);
+        AuthenticationSessionModel authSession = Stubs.stub(AuthenticationSessionModel.class);
+        LoginFormsProvider loginForm = Stubs.stub(LoginFormsProvider.class);
+        Map<String, Function<Object[], Object>> answers = new HashMap<String, Function<Object[], Object>>();
+        answers.put("getHttpRequest", args -> shared.request);
+        answers.put("getEvent", args -> shared.event);
+        answers.put("getRealm", args -> shared.realm);
+        answers.put("getSession", args -> shared.session);
+        answers.put("getConnection", args -> shared.connection);
+        answers.put("getAuthenticatorConfig", args -> config);
+        answers.put("getAuthenticationSession", args -> authSession);
+        answers.put("form", args -> loginForm);
+        return Stubs.stub(AuthenticationFlowContext.class, answers);
+    }
+
+    private static class Shared {
+        final HttpRequest request;
+        final RealmModel realm;
+        final KeycloakSession session;
+        final ClientConnection connection;
+        final EventBuilder event;
+
+        Shared(MultivaluedMap<String, String> form) {
+            Map<String, Function<Object[], Object>> requestAnswers = new HashMap<String, Function<Object[], Object>>();
+            requestAnswers.put("getDecodedFormParameters", args -> form);
+            request = Stubs.stub(HttpRequest.class, requestAnswers);
+
+            Map<String, Function<Object[], Object>> realmAnswers = new HashMap<String, Function<Object[], Object>>();
+            realmAnswers.put("getId", args -> "benchmark");
+            realmAnswers.put("getName", args -> "benchmark");
+            realmAnswers.put("isLoginWithEmailAllowed", args -> true);
+            realm = Stubs.stub(RealmModel.class, realmAnswers);
+
+            UserProvider users = Stubs.stub(UserProvider.class);
+            Map<String, Function<Object[], Object>> sessionAnswers = new HashMap<String, Function<Object[], Object>>();
+            sessionAnswers.put("users", args -> users);
+            session = Stubs.stub(KeycloakSession.class, sessionAnswers);
+
+            Map<String, Function<Object[], Object>> connectionAnswers = new HashMap<String, Function<Object[], Object>>();
+            connectionAnswers.put("getRemoteAddr", args -> "127.0.0.1");
+            connection = Stubs.stub(ClientConnection.class, connectionAnswers);
+
+            event = new EventBuilder(realm, session, connection);
+        }
+    }
+}
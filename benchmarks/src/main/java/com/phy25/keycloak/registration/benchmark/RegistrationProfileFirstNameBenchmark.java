@@ -0,0 +1,54 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.phy25.keycloak.registration.RegistrationProfileFirstName;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationProfileFirstNameBenchmark {
+
+    private RegistrationProfileFirstName action;
+    private ValidationContext valid;
+    private ValidationContext invalidEmail;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        action = new RegistrationProfileFirstName();
+        action.init(Fixtures.defaultScope());
+        valid = Fixtures.validationContext(Fixtures.form(
+                RegistrationPage.FIELD_FIRST_NAME, "John",
+                RegistrationPage.FIELD_EMAIL, "jdoe@example.com"), null);
+        invalidEmail = Fixtures.validationContext(Fixtures.form(
+                RegistrationPage.FIELD_FIRST_NAME, "John",
+                RegistrationPage.FIELD_EMAIL, "jdoe.example.com"), null);
+    }
+
+    @Benchmark
+    public void validateValid() {
+        action.validate(valid);
+    }
+
+    @Benchmark
+    public void validateInvalidEmail() {
+        action.validate(invalidEmail);
+    }
+}
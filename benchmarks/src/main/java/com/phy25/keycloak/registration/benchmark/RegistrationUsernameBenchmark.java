@@ -0,0 +1,92 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.phy25.keycloak.registration.RegistrationUsername;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationUsernameBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int blocklistSize;
+
+    @Param({"none", "simple", "complex"})
+    public String regex;
+
+    /** Hook latency in milliseconds, -1 runs without hook. */
+    @Param({"-1", "0", "5"})
+    public long hookLatency;
+
+    private RegistrationUsername action;
+    private StubHookServer hookServer;
+    private ValidationContext accepted;
+    private ValidationContext blocked;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        action = new RegistrationUsername();
+        action.init(Fixtures.defaultScope());
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(RegistrationUsername.INVALID_USERNAMES, Blocklists.generate(blocklistSize));
+        String pattern = Blocklists.regex(regex);
+        if (pattern != null) {
+            values.put(RegistrationUsername.USERNAME_REGEX, pattern);
+        }
+        if (hookLatency >= 0) {
+            hookServer = new StubHookServer(hookLatency);
+            values.put(RegistrationUsername.HOOK_URL, hookServer.url());
+        }
+        AuthenticatorConfigModel config = Fixtures.config("benchmark-username", values);
+
+        accepted = Fixtures.validationContext(Fixtures.form(
+                RegistrationPage.FIELD_USERNAME, "jdoe_42",
+                RegistrationPage.FIELD_EMAIL, "jdoe@example.com"), config);
+        blocked = Fixtures.validationContext(Fixtures.form(
+                RegistrationPage.FIELD_USERNAME, "reserved" + (blocklistSize - 1),
+                RegistrationPage.FIELD_EMAIL, "jdoe@example.com"), config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        action.close();
+        if (hookServer != null) {
+            hookServer.stop();
+        }
+    }
+
+    @Benchmark
+    public void validateAccepted() {
+        action.validate(accepted);
+    }
+
+    @Benchmark
+    public void validateBlocked() {
+        action.validate(blocked);
+    }
+}
@@ -0,0 +1,68 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.phy25.keycloak.registration.ResetCredentialChooseUserRelexedHook;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResetCredentialChooseUserBenchmark {
+
+    /** Hook latency in milliseconds, -1 runs without hook. */
+    @Param({"-1", "0", "5"})
+    public long hookLatency;
+
+    private ResetCredentialChooseUserRelexedHook authenticator;
+    private StubHookServer hookServer;
+    private AuthenticationFlowContext unknownUser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        authenticator = new ResetCredentialChooseUserRelexedHook();
+        authenticator.init(Fixtures.defaultScope());
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(ResetCredentialChooseUserRelexedHook.ENABLE_INVALID_PROMPT, "true");
+        if (hookLatency >= 0) {
+            hookServer = new StubHookServer(hookLatency);
+            values.put(ResetCredentialChooseUserRelexedHook.HOOK_URL, hookServer.url());
+        }
+        unknownUser = Fixtures.flowContext(Fixtures.form("username", "nobody@example.com"),
+                Fixtures.config("benchmark-reset", values));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        authenticator.close();
+        if (hookServer != null) {
+            hookServer.stop();
+        }
+    }
+
+    @Benchmark
+    public void actionUnknownUser() {
+        authenticator.action(unknownUser);
+    }
+}
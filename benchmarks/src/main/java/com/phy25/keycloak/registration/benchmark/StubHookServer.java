@@ -0,0 +1,54 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local hook endpoint answering GET requests after a fixed delay. Usernames
+ * starting with "blocked" are answered with "yes".
+ */
+final class StubHookServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    StubHookServer(long latencyMillis) throws IOException {
+        // without TCP_NODELAY the JDK server adds delayed-ACK stalls of ~40ms per response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/hook", exchange -> {
+            if (latencyMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            byte[] body = (query != null && query.contains("username=blocked") ? "yes" : "no").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
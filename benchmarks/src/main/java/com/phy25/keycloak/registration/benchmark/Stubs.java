@@ -0,0 +1,62 @@
+package com.phy25.keycloak.registration.benchmark;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Minimal dynamic-proxy stubs for Keycloak interfaces. Methods without an
+ * answer return the proxy itself when the return type allows it (fluent
+ * builders), the default value for primitives and null otherwise.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    static <T> T stub(Class<T> type) {
+        return stub(type, Collections.<String, Function<Object[], Object>>emptyMap());
+    }
+
+    static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Object proxy = Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            return defaultValue(self, method, args);
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object defaultValue(Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            case "toString":
+                return "stub";
+            default:
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType.isInstance(self)) {
+            return self;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType.isPrimitive() && returnType != void.class) {
+            throw new UnsupportedOperationException(method.toString());
+        }
+        return null;
+    }
+}
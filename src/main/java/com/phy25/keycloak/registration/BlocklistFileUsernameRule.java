@@ -0,0 +1,108 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.services.validation.Validation;
+
+/**
+ * Rejects usernames listed in the invalid username file. With lookalike matching
+ * the username is also looked up in its {@link UsernameSkeleton#fold(String) folded}
+ * form, which catches names that swap letters for ones from another script or
+ * add accents; the file itself is kept as is.
+ */
+public class BlocklistFileUsernameRule implements UsernameRule, UsernameRuleFactory {
+
+    public static final String PROVIDER_ID = UsernameMetricsProvider.CHECK_BLOCKLIST_FILE;
+
+    /**
+     * The file to look names up in, and whether folded names are looked up too.
+     */
+    static class Settings {
+        final ReservedUsernameFile file;
+        final boolean lookalikes;
+
+        Settings(ReservedUsernameFile file, boolean lookalikes) {
+            this.file = file;
+            this.lookalikes = lookalikes;
+        }
+    }
+
+    @Override
+    public Object compile(String configId, Map<String, String> config) {
+        String path = config.get(RegistrationUsername.INVALID_USERNAMES_FILE);
+        if (Validation.isBlank(path)) {
+            return null;
+        }
+        ReservedUsernameFile file = ReservedUsernameFile.forPath(path);
+        return file == null ? null : new Settings(file, "true".equals(config.get(RegistrationUsername.LOOKALIKES)));
+    }
+
+    @Override
+    public FormMessage check(UsernameRuleContext context) {
+        Settings settings = context.getCompiled(PROVIDER_ID);
+        if (settings == null) {
+            return null;
+        }
+        ReservedUsernameFile file = settings.file;
+        String username = context.getUsername();
+        if (file.contains(username)) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_NOT_AVAILABLE);
+        }
+        if (settings.lookalikes) {
+            String folded = UsernameSkeleton.fold(username);
+            if (!folded.equalsIgnoreCase(username) && file.contains(folded)) {
+                return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_NOT_AVAILABLE);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getOrder() {
+        return 300;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Rejects usernames listed in the invalid username file";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        // Invalid Username File is part of the registration-username-action config
+        return Collections.emptyList();
+    }
+
+    @Override
+    public UsernameRule create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,80 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Rejects usernames on the comma separated invalid username list, optionally
+ * also when spelled with lookalike characters.
+ */
+public class BlocklistUsernameRule implements UsernameRule, UsernameRuleFactory {
+
+    public static final String PROVIDER_ID = UsernameMetricsProvider.CHECK_BLOCKLIST;
+
+    @Override
+    public Object compile(String configId, Map<String, String> config) {
+        String invalidUsernames = config.get(RegistrationUsername.INVALID_USERNAMES);
+        if (invalidUsernames == null || invalidUsernames.isEmpty()) {
+            return null;
+        }
+        return InvalidUsernameIndex.parse(invalidUsernames, "true".equals(config.get(RegistrationUsername.LOOKALIKES)));
+    }
+
+    @Override
+    public FormMessage check(UsernameRuleContext context) {
+        InvalidUsernameIndex index = context.getCompiled(PROVIDER_ID);
+        if (index != null && index.matches(context.getUsername())) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_NOT_AVAILABLE);
+        }
+        return null;
+    }
+
+    @Override
+    public int getOrder() {
+        return 200;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Rejects usernames on the invalid username list";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        // Invalid Username is part of the registration-username-action config
+        return Collections.emptyList();
+    }
+
+    @Override
+    public UsernameRule create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
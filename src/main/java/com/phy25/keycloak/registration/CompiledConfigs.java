@@ -0,0 +1,92 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+import org.keycloak.models.AuthenticatorConfigModel;
+
+/**
+ * Immutable objects compiled from execution configs, kept by a provider factory
+ * so requests find everything parsed. An entry is keyed by config ID and belongs
+ * to one version of the config. Config models carry no version in this Keycloak,
+ * so the config map stands in for it: the realm cache hands out the same map until
+ * the config is changed, which makes the check a reference comparison, and
+ * without the realm cache maps are compared by content. A changed config is
+ * compiled again and replaces its entry in one step; entries are also dropped
+ * when the config is updated or deleted on any node. An execution without a
+ * config gets the value compiled from an empty config, which is the same for
+ * every realm; a config without an ID is compiled on every call.
+ */
+public class CompiledConfigs<T> {
+
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+    private final BiFunction<String, Map<String, String>, T> compiler;
+    private volatile T unconfigured;
+
+    /**
+     * The compiler gets the config ID, null without a config, and an unmodifiable
+     * copy of the config.
+     */
+    public CompiledConfigs(BiFunction<String, Map<String, String>, T> compiler) {
+        this.compiler = compiler;
+        UsernameClusterCache.addInvalidationListener(this::invalidate);
+    }
+
+    public T get(AuthenticatorConfigModel configModel) {
+        if (configModel == null) {
+            return unconfigured();
+        }
+        return get(configModel.getId(), configModel.getConfig() == null ? Collections.<String, String>emptyMap() : configModel.getConfig());
+    }
+
+    public T get(String configId, Map<String, String> config) {
+        if (configId == null) {
+            return config.isEmpty() ? unconfigured() : compiler.apply(null, Collections.unmodifiableMap(new HashMap<String, String>(config)));
+        }
+        Entry<T> entry = entries.get(configId);
+        if (entry != null && (entry.source == config || entry.config.equals(config))) {
+            return entry.value;
+        }
+        Map<String, String> copy = Collections.unmodifiableMap(new HashMap<String, String>(config));
+        entry = new Entry<T>(config, copy, compiler.apply(configId, copy));
+        entries.put(configId, entry);
+        return entry.value;
+    }
+
+    private T unconfigured() {
+        T value = unconfigured;
+        if (value == null) {
+            // compiling twice in a race is harmless, both results are equal
+            value = compiler.apply(null, Collections.<String, String>emptyMap());
+            unconfigured = value;
+        }
+        return value;
+    }
+
+    public void invalidate(String configId) {
+        if (configId != null) {
+            entries.remove(configId);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        unconfigured = null;
+    }
+
+    private static class Entry<T> {
+        final Map<String, String> source;
+        final Map<String, String> config;
+        final T value;
+
+        Entry(Map<String, String> source, Map<String, String> config, T value) {
+            this.source = source;
+            this.config = config;
+            this.value = value;
+        }
+    }
+}
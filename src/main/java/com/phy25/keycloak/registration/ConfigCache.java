@@ -0,0 +1,45 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Values derived from an authenticator config entry, keyed by config ID. An entry
+ * is rebuilt whenever the source text it was derived from changes, so edits made
+ * in the admin console drop the stale value on next use.
+ */
+public class ConfigCache<T> {
+
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+
+    public T get(String configId, String source, Function<String, T> loader) {
+        String key = configId == null ? "" : configId;
+        Entry<T> entry = entries.get(key);
+        if (entry != null && Objects.equals(entry.source, source)) {
+            return entry.value;
+        }
+        entry = new Entry<T>(source, loader.apply(source));
+        entries.put(key, entry);
+        return entry.value;
+    }
+
+    public void invalidate(String configId) {
+        entries.remove(configId == null ? "" : configId);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class Entry<T> {
+        final String source;
+        final T value;
+
+        Entry(String source, T value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticationFlowModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Finds the config of an execution in a realm's flows, for code that runs
+ * outside of an authentication flow such as the REST endpoints.
+ */
+public class ExecutionConfigs {
+
+    private ExecutionConfigs() {
+    }
+
+    /**
+     * The config of the first enabled execution of one of the providers in the flow
+     * or its sub-flows, or null when there is none or it has no config.
+     */
+    public static AuthenticatorConfigModel find(RealmModel realm, AuthenticationFlowModel flow, String... providerIds) {
+        if (flow == null) {
+            return null;
+        }
+        for (AuthenticationExecutionModel execution : realm.getAuthenticationExecutions(flow.getId())) {
+            if (execution.isDisabled()) {
+                continue;
+            }
+            if (execution.isAuthenticatorFlow()) {
+                AuthenticatorConfigModel config = find(realm, realm.getAuthenticationFlowById(execution.getFlowId()), providerIds);
+                if (config != null) {
+                    return config;
+                }
+            } else if (execution.getAuthenticatorConfig() != null && Arrays.asList(providerIds).contains(execution.getAuthenticator())) {
+                return realm.getAuthenticatorConfigById(execution.getAuthenticatorConfig());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The configs of all enabled executions of the providers in any of the realm's
+     * flows, each once.
+     */
+    public static List<AuthenticatorConfigModel> findAll(RealmModel realm, String... providerIds) {
+        Set<String> configIds = new LinkedHashSet<String>();
+        for (AuthenticationFlowModel flow : realm.getAuthenticationFlows()) {
+            for (AuthenticationExecutionModel execution : realm.getAuthenticationExecutions(flow.getId())) {
+                if (!execution.isDisabled() && execution.getAuthenticatorConfig() != null
+                        && Arrays.asList(providerIds).contains(execution.getAuthenticator())) {
+                    configIds.add(execution.getAuthenticatorConfig());
+                }
+            }
+        }
+        List<AuthenticatorConfigModel> configs = new ArrayList<AuthenticatorConfigModel>(configIds.size());
+        for (String configId : configIds) {
+            AuthenticatorConfigModel config = realm.getAuthenticatorConfigById(configId);
+            if (config != null) {
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+}
@@ -0,0 +1,331 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+
+/**
+ * Audit trail of hook outcomes as JSON lines, one object per checked username:
+ * <pre>
+ * {"time":"...","action":"registration-username-action","realm":"demo","context":"registration",
+ *  "username":"jdoe","result":"MATCHED","reason":"brand-name","millis":12.5}
+ * </pre>
+ * Request threads put events into a bounded lock-free ring buffer and never
+ * wait: when the buffer is full the event is dropped and counted, and the count
+ * is written to the log as {@code {"time":"...","dropped":17}}. A background
+ * thread writes the buffered events in batches and rotates the file by size.
+ * Enabled with the provider option auditLogFile.
+ */
+public class HookAuditLog {
+
+    private static final Logger logger = Logger.getLogger(HookAuditLog.class);
+
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long DROP_WARNING_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static volatile HookAuditLog instance;
+    // factories that called start and have not closed yet
+    private static int users;
+
+    private final Ring<Event> ring;
+    private final Path path;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+    private long fileSize;
+    private long reportedDrops;
+    private long lastDropWarning;
+
+    private HookAuditLog(Path path, int capacity, long maxFileSize, int maxFiles) {
+        this.ring = new Ring<Event>(capacity);
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.writer = new Thread(this::run, "username-hook-audit");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the log from the provider options auditLogFile (no log when empty),
+     * auditLogBufferSize (events, rounded up to a power of two, default 8192),
+     * auditLogMaxSize (bytes per file, default 10 MB) and auditLogMaxFiles (rotated
+     * files kept, default 5). The first factory with a file configured starts it;
+     * every factory calling this calls {@link #close()} once.
+     */
+    public static synchronized void start(Config.Scope config) {
+        users++;
+        String file = config.get("auditLogFile");
+        if (file == null || file.trim().isEmpty()) {
+            return;
+        }
+        if (instance != null) {
+            if (!instance.path.equals(Paths.get(file.trim()))) {
+                logger.warnf("Hook audit log already written to %s, ignoring %s", instance.path, file);
+            }
+            return;
+        }
+        int capacity = Integer.highestOneBit(Math.max(16, config.getInt("auditLogBufferSize", 8192)) * 2 - 1);
+        long maxFileSize = Math.max(4096L, config.getLong("auditLogMaxSize", 10L * 1024 * 1024));
+        int maxFiles = Math.max(0, config.getInt("auditLogMaxFiles", 5));
+        HookAuditLog log = new HookAuditLog(Paths.get(file.trim()), capacity, maxFileSize, maxFiles);
+        try {
+            log.open();
+        } catch (IOException e) {
+            logger.errorf(e, "Failed to open hook audit log %s, audit disabled", file);
+            return;
+        }
+        log.writer.start();
+        instance = log;
+        logger.infof("Hook audit log written to %s", log.path);
+    }
+
+    /**
+     * Stops the writer after the buffered events are written, once every factory
+     * that called {@link #start(Config.Scope)} has closed.
+     */
+    public static synchronized void close() {
+        if (users > 0 && --users > 0) {
+            return;
+        }
+        HookAuditLog log = instance;
+        if (log == null) {
+            return;
+        }
+        instance = null;
+        log.running = false;
+        LockSupport.unpark(log.writer);
+        try {
+            log.writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Events dropped because the buffer was full, since startup.
+     */
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    /**
+     * Records a hook outcome without waiting; a no-op when the log is not enabled.
+     */
+    public static void record(String action, String realm, String context, String username, HookVerdict verdict, long nanos) {
+        HookAuditLog log = instance;
+        if (log == null) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), action, realm, context, username,
+                verdict.getResult(), verdict.getReason(), nanos);
+        if (!log.ring.offer(event)) {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        StringBuilder batch = new StringBuilder(BATCH_SIZE * 160);
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            Event event;
+            while (count < BATCH_SIZE && (event = ring.poll()) != null) {
+                event.appendJson(batch);
+                count++;
+            }
+            long dropped = DROPPED.get();
+            if (dropped != reportedDrops) {
+                batch.append("{\"time\":\"").append(Instant.now()).append("\",\"dropped\":").append(dropped - reportedDrops).append("}\n");
+                warnDropped(dropped - reportedDrops);
+                reportedDrops = dropped;
+            }
+            if (batch.length() > 0) {
+                write(batch);
+                batch.setLength(0);
+            }
+            if (count == BATCH_SIZE) {
+                continue;
+            }
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close hook audit log", e);
+        }
+    }
+
+    private void warnDropped(long dropped) {
+        long now = System.currentTimeMillis();
+        if (now - lastDropWarning >= DROP_WARNING_MILLIS) {
+            lastDropWarning = now;
+            logger.warnf("Hook audit buffer full, %d events dropped", dropped);
+        }
+    }
+
+    private void write(StringBuilder batch) {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch.toString());
+        try {
+            if (fileSize > 0 && fileSize + bytes.remaining() > maxFileSize) {
+                rotate();
+            }
+            while (bytes.hasRemaining()) {
+                fileSize += channel.write(bytes);
+            }
+        } catch (IOException e) {
+            logger.warnf(e, "Failed to write hook audit log %s", path);
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Renames audit.log to audit.log.1, audit.log.1 to audit.log.2 and so on,
+     * dropping the oldest, and starts a new file.
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(path);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path from = rotated(i);
+                if (Files.exists(from)) {
+                    Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private Path rotated(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private static class Event {
+        final long time;
+        final String action;
+        final String realm;
+        final String context;
+        final String username;
+        final UsernameHook.Result result;
+        final String reason;
+        final long nanos;
+
+        Event(long time, String action, String realm, String context, String username, UsernameHook.Result result,
+              String reason, long nanos) {
+            this.time = time;
+            this.action = action;
+            this.realm = realm;
+            this.context = context;
+            this.username = username;
+            this.result = result;
+            this.reason = reason;
+            this.nanos = nanos;
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append('"');
+            JsonLines.appendField(json, "action", action);
+            JsonLines.appendField(json, "realm", realm);
+            JsonLines.appendField(json, "context", context);
+            JsonLines.appendField(json, "username", username);
+            JsonLines.appendField(json, "result", result.name());
+            if (reason != null) {
+                JsonLines.appendField(json, "reason", reason);
+            }
+            json.append(",\"millis\":").append(nanos / 1000 / 1000.0).append("}\n");
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring buffer. Each slot carries a
+     * sequence number telling producers and the consumer whose turn it is, so
+     * neither side takes a lock; a producer that finds the ring full gives up.
+     * The capacity must be a power of two.
+     */
+    static class Ring<E> {
+        private final int mask;
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private long head;
+
+        Ring(int capacity) {
+            mask = capacity - 1;
+            slots = new AtomicReferenceArray<E>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(E event) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.lazySet(index, event);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * The oldest event, or null when the ring is empty. Consumer thread only.
+         */
+        E poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            E event = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, head + mask + 1);
+            head++;
+            return event;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.phy25.keycloak.registration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Circuit breaker and bulkhead for one hook URL and one set of breaker
+ * settings. Executions calling the same URL with the same settings share a
+ * breaker and its concurrency limit; an execution with other settings gets its
+ * own, so neither resets the other's failure count or bulkhead. After the
+ * configured number of consecutive failed or slow calls the breaker opens and
+ * calls are refused without touching the network. Once the open period has
+ * passed a single probe call is let through; its outcome closes or reopens the
+ * breaker. The bulkhead caps the number of hook requests in flight, including
+ * ones the caller stopped waiting for.
+ */
+public class HookCircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(HookCircuitBreaker.class);
+
+    public static final String FAILURE_THRESHOLD = "hook-failure-threshold";
+    public static final String OPEN_SECONDS = "hook-open-seconds";
+    public static final String SLOW_CALL = "hook-slow-call";
+    public static final String MAX_CONCURRENT = "hook-max-concurrent";
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_OPEN_SECONDS = 30;
+
+    private static final ConcurrentMap<String, HookCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, HookCircuitBreaker>();
+
+    private final String hookUrl;
+    private final Settings settings;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openUntil;
+
+    private HookCircuitBreaker(String hookUrl, Settings settings) {
+        this.hookUrl = hookUrl;
+        this.settings = settings;
+    }
+
+    public static void addConfigProperties(List<ProviderConfigProperty> properties, String prefix) {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(prefix + FAILURE_THRESHOLD);
+        property.setLabel("Hook Failure Threshold");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Consecutive failed or slow hook calls before the hook is skipped for a while. 0 disables. Default " + DEFAULT_FAILURE_THRESHOLD);
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + OPEN_SECONDS);
+        property.setLabel("Hook Open Seconds");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Seconds to skip the hook after it tripped, before a single probe request is sent. Default " + DEFAULT_OPEN_SECONDS);
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + SLOW_CALL);
+        property.setLabel("Hook Slow Call");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Milliseconds after which a hook call counts as failed for the failure threshold. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + MAX_CONCURRENT);
+        property.setLabel("Hook Max Concurrent");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Maximum hook requests in flight for this hook URL and breaker settings. Empty or 0 means no limit");
+        properties.add(property);
+    }
+
+    public static HookCircuitBreaker forConfig(String hookUrl, Map<String, String> config, String prefix) {
+        int failureThreshold = (int) number(config.get(prefix + FAILURE_THRESHOLD), DEFAULT_FAILURE_THRESHOLD);
+        long openMillis = TimeUnit.SECONDS.toMillis(number(config.get(prefix + OPEN_SECONDS), DEFAULT_OPEN_SECONDS));
+        long slowCallNanos = TimeUnit.MILLISECONDS.toNanos(number(config.get(prefix + SLOW_CALL), 0));
+        int maxConcurrent = (int) number(config.get(prefix + MAX_CONCURRENT), 0);
+        String key = failureThreshold + "|" + openMillis + "|" + slowCallNanos + "|" + maxConcurrent + "|" + hookUrl;
+        return BREAKERS.computeIfAbsent(key,
+                k -> new HookCircuitBreaker(hookUrl, new Settings(failureThreshold, openMillis, slowCallNanos, maxConcurrent)));
+    }
+
+    private static long number(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid hook circuit breaker setting '%s', using %d", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    /**
+     * Returns a permit for one hook call, or null when the breaker is open or the
+     * bulkhead is full. The permit must be completed once the call finishes.
+     */
+    public Permit acquire() {
+        Settings current = settings;
+        boolean probe = false;
+        if (current.failureThreshold > 0 && openUntil != 0) {
+            if (System.currentTimeMillis() < openUntil || !probing.compareAndSet(false, true)) {
+                return null;
+            }
+            probe = true;
+        }
+        if (current.bulkhead != null && !current.bulkhead.tryAcquire()) {
+            if (probe) {
+                probing.set(false);
+            }
+            logger.warnf("Hook concurrency limit of %d reached: %s", current.maxConcurrent, hookUrl);
+            return null;
+        }
+        return new Permit(current, probe);
+    }
+
+    private void onComplete(Settings used, boolean probe, boolean failed) {
+        if (!failed) {
+            failures.set(0);
+            if (probe) {
+                openUntil = 0;
+                probing.set(false);
+                logger.infof("Hook recovered, circuit closed: %s", hookUrl);
+            }
+            return;
+        }
+        if (used.failureThreshold <= 0) {
+            return;
+        }
+        if (probe) {
+            openUntil = System.currentTimeMillis() + used.openMillis;
+            probing.set(false);
+            logger.warnf("Hook probe failed, circuit stays open: %s", hookUrl);
+        } else if (failures.incrementAndGet() >= used.failureThreshold && openUntil == 0) {
+            openUntil = System.currentTimeMillis() + used.openMillis;
+            logger.warnf("Hook failed %d times, circuit opened for %d ms: %s", failures.get(), used.openMillis, hookUrl);
+        }
+    }
+
+    public class Permit {
+        private final Settings settings;
+        private final boolean probe;
+        private final long started = System.nanoTime();
+
+        private Permit(Settings settings, boolean probe) {
+            this.settings = settings;
+            this.probe = probe;
+        }
+
+        public void complete(boolean failed) {
+            if (settings.bulkhead != null) {
+                settings.bulkhead.release();
+            }
+            boolean slow = settings.slowCallNanos > 0 && System.nanoTime() - started > settings.slowCallNanos;
+            onComplete(settings, probe, failed || slow);
+        }
+
+        public void cancel() {
+            if (settings.bulkhead != null) {
+                settings.bulkhead.release();
+            }
+            if (probe) {
+                probing.set(false);
+            }
+        }
+    }
+
+    private static class Settings {
+        final int failureThreshold;
+        final long openMillis;
+        final long slowCallNanos;
+        final int maxConcurrent;
+        final Semaphore bulkhead;
+
+        Settings(int failureThreshold, long openMillis, long slowCallNanos, int maxConcurrent) {
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+            this.slowCallNanos = slowCallNanos;
+            this.maxConcurrent = maxConcurrent;
+            this.bulkhead = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        }
+
+    }
+}
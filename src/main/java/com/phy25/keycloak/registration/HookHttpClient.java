@@ -0,0 +1,122 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+
+/**
+ * Connection-pooled HTTP client for hook requests, owned by a provider factory.
+ * Connections to the hook host are kept alive and reused across requests.
+ * Configured through the provider options hookPoolSize, hookConnectTimeout,
+ * hookReadTimeout and hookConnectionTtl (milliseconds).
+ */
+public class HookHttpClient {
+
+    private static final Logger logger = Logger.getLogger(HookHttpClient.class);
+
+    private final CloseableHttpClient client;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final int connectTimeout;
+    private final long connectionTtl;
+
+    private HookHttpClient(int poolSize, int connectTimeout, int readTimeout, long connectionTtl) {
+        this.connectTimeout = connectTimeout;
+        this.connectionTtl = connectionTtl;
+        connectionManager = new PoolingHttpClientConnectionManager(connectionTtl, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(poolSize);
+        connectionManager.setDefaultMaxPerRoute(poolSize);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        client = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .useSystemProperties()
+                .build();
+    }
+
+    public static HookHttpClient create(Config.Scope config) {
+        int poolSize = config.getInt("hookPoolSize", 64);
+        int connectTimeout = config.getInt("hookConnectTimeout", 5000);
+        int readTimeout = config.getInt("hookReadTimeout", 10000);
+        long connectionTtl = config.getLong("hookConnectionTtl", 300000L);
+        logger.debugf("Hook HTTP client: pool %d, connect timeout %d ms, read timeout %d ms", poolSize, connectTimeout, readTimeout);
+        return new HookHttpClient(Math.max(1, poolSize), connectTimeout, readTimeout, connectionTtl);
+    }
+
+    public HttpClient get() {
+        return client;
+    }
+
+    /**
+     * Opens up to count connections to the host of the hook URL, including the TLS
+     * handshake, and leaves them in the pool, so the first hook requests do not pay
+     * for connection setup. Nothing is sent to the hook. Returns the connections
+     * opened.
+     */
+    public int preconnect(String hookUrl, int count) {
+        HttpHost host;
+        try {
+            host = URIUtils.extractHost(URI.create(hookUrl));
+        } catch (IllegalArgumentException e) {
+            logger.warnf("Invalid hook URL '%s', not connecting ahead", hookUrl);
+            return 0;
+        }
+        if (host == null) {
+            return 0;
+        }
+        boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+        int port = host.getPort() >= 0 ? host.getPort() : secure ? 443 : 80;
+        HttpRoute route = new HttpRoute(new HttpHost(host.getHostName(), port, host.getSchemeName()), null, secure);
+        HttpContext context = new BasicHttpContext();
+        List<HttpClientConnection> connections = new ArrayList<HttpClientConnection>(count);
+        int opened = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null).get(connectTimeout, TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    connectionManager.connect(connection, route, connectTimeout, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+                opened++;
+            }
+        } catch (IOException | ExecutionException e) {
+            logger.warnf("Failed to connect ahead to hook host %s: %s", host, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (HttpClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, null, connectionTtl, TimeUnit.MILLISECONDS);
+            }
+        }
+        return opened;
+    }
+
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close hook HTTP client", e);
+        }
+    }
+}
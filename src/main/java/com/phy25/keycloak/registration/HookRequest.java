@@ -0,0 +1,105 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * What is sent to a username hook. In GET mode only the query URL is used; in
+ * JSON mode the whole request is posted to the hook URL:
+ * <pre>
+ * {"context": "registration", "username": "...", "email": "...", "candidates": ["...", "..."]}
+ * </pre>
+ */
+public class HookRequest {
+
+    public static final String CONTEXT_REGISTRATION = "registration";
+    public static final String CONTEXT_RESET_CREDENTIALS = "reset-credentials";
+
+    private final String hookUrl;
+    private final String context;
+    private final String username;
+    private final String email;
+    private final List<String> candidates;
+
+    private HookRequest(String hookUrl, String context, String username, String email, List<String> candidates) {
+        this.hookUrl = hookUrl;
+        this.context = context;
+        this.username = username;
+        this.email = email;
+        this.candidates = candidates;
+    }
+
+    public static HookRequest registration(String hookUrl, String username, String email) {
+        return new HookRequest(hookUrl, CONTEXT_REGISTRATION, username, email, Collections.<String>emptyList());
+    }
+
+    public static HookRequest resetCredentials(String hookUrl, String username) {
+        return new HookRequest(hookUrl, CONTEXT_RESET_CREDENTIALS, username, null, Collections.<String>emptyList());
+    }
+
+    /**
+     * A request validating several usernames at once, for the same email and context.
+     */
+    public HookRequest withCandidates(List<String> candidates) {
+        return new HookRequest(hookUrl, context, username, email, Collections.unmodifiableList(new ArrayList<String>(candidates)));
+    }
+
+    /**
+     * The single-username request for one of the candidates.
+     */
+    public HookRequest forCandidate(String candidate) {
+        return new HookRequest(hookUrl, context, candidate, email, Collections.<String>emptyList());
+    }
+
+    public String getHookUrl() {
+        return hookUrl;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public List<String> getCandidates() {
+        return candidates;
+    }
+
+    public boolean isBatch() {
+        return !candidates.isEmpty();
+    }
+
+    public String getQueryUrl() {
+        UriBuilder urlBuild = UriBuilder.fromUri(hookUrl)
+                .queryParam("username", username);
+        if (CONTEXT_REGISTRATION.equals(context) && email != null) {
+            urlBuild.queryParam("email", email);
+        }
+        return urlBuild.build().toString();
+    }
+
+    public String getCacheKey() {
+        return getQueryUrl();
+    }
+
+    public Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("context", context);
+        json.put("username", username);
+        if (email != null) {
+            json.put("email", email);
+        }
+        if (isBatch()) {
+            json.put("candidates", candidates);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return isBatch() ? hookUrl + " " + candidates : getQueryUrl();
+    }
+}
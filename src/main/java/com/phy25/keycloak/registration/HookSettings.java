@@ -0,0 +1,71 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+import org.keycloak.services.validation.Validation;
+
+/**
+ * The username hook as an execution config sets it up: URL, mode, timeout and
+ * failure policy, with the verdict cache and circuit breaker it goes through.
+ */
+public class HookSettings {
+
+    private final String url;
+    private final boolean json;
+    private final long timeoutMillis;
+    private final boolean failOpen;
+    private final HookVerdictCache cache;
+    private final HookCircuitBreaker breaker;
+
+    private HookSettings(String url, boolean json, long timeoutMillis, boolean failOpen, HookVerdictCache cache, HookCircuitBreaker breaker) {
+        this.url = url;
+        this.json = json;
+        this.timeoutMillis = timeoutMillis;
+        this.failOpen = failOpen;
+        this.cache = cache;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Reads the hook settings, or returns null when no hook URL is set. Without a
+     * timeout property the hook is waited for without deadline, and without a
+     * fail-open property a failed hook rejects.
+     */
+    public static HookSettings parse(String configId, Map<String, String> config, String prefix, String urlProperty,
+                                     String timeoutProperty, String failOpenProperty) {
+        String url = config.get(urlProperty);
+        if (Validation.isBlank(url)) {
+            return null;
+        }
+        return new HookSettings(url,
+                UsernameHook.isJsonMode(config.get(prefix + UsernameHook.HOOK_MODE)),
+                timeoutProperty == null ? 0 : UsernameHook.parseTimeout(config.get(timeoutProperty)),
+                failOpenProperty != null && "true".equals(config.get(failOpenProperty)),
+                HookVerdictCache.forConfig(configId, config, prefix),
+                HookCircuitBreaker.forConfig(url, config, prefix));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isJson() {
+        return json;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isFailOpen() {
+        return failOpen;
+    }
+
+    public HookVerdictCache getCache() {
+        return cache;
+    }
+
+    public HookCircuitBreaker getBreaker() {
+        return breaker;
+    }
+}
@@ -0,0 +1,45 @@
+package com.phy25.keycloak.registration;
+
+/**
+ * Answer of a username hook: the outcome, an optional reason code and an
+ * optional TTL hint in seconds (negative when the hook gave none).
+ */
+public class HookVerdict {
+
+    public static final HookVerdict MATCHED = new HookVerdict(UsernameHook.Result.MATCHED, null, -1);
+    public static final HookVerdict CLEARED = new HookVerdict(UsernameHook.Result.CLEARED, null, -1);
+    public static final HookVerdict FAILED = new HookVerdict(UsernameHook.Result.FAILED, null, -1);
+    public static final HookVerdict TIMED_OUT = new HookVerdict(UsernameHook.Result.TIMED_OUT, null, -1);
+    public static final HookVerdict UNAVAILABLE = new HookVerdict(UsernameHook.Result.UNAVAILABLE, null, -1);
+
+    private final UsernameHook.Result result;
+    private final String reason;
+    private final long ttlSeconds;
+
+    public HookVerdict(UsernameHook.Result result, String reason, long ttlSeconds) {
+        this.result = result;
+        this.reason = reason;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public UsernameHook.Result getResult() {
+        return result;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public boolean rejects(boolean failOpen) {
+        return result.rejects(failOpen);
+    }
+
+    @Override
+    public String toString() {
+        return reason == null ? result.toString() : result + " (" + reason + ")";
+    }
+}
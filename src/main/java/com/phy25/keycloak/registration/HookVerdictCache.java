@@ -0,0 +1,219 @@
+package com.phy25.keycloak.registration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Size-bounded LRU cache of hook results, keyed by the full hook request URL.
+ * Matched, cleared and failed results each have their own TTL; a TTL of zero
+ * disables caching for that result. A TTL hint sent by the hook can shorten the
+ * TTL of its result, never lengthen it or enable a disabled one.
+ * When the shared {@link UsernameClusterCache} is running, results are also
+ * stored there and local misses are looked up in it.
+ */
+public class HookVerdictCache {
+
+    private static final Logger logger = Logger.getLogger(HookVerdictCache.class);
+
+    public static final String MATCHED_TTL = "hook-cache-matched-ttl";
+    public static final String CLEARED_TTL = "hook-cache-cleared-ttl";
+    public static final String FAILED_TTL = "hook-cache-failed-ttl";
+    public static final String MAX_ENTRIES = "hook-cache-size";
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final ConfigCache<HookVerdictCache> CACHES = new ConfigCache<HookVerdictCache>();
+
+    static {
+        UsernameClusterCache.addInvalidationListener(CACHES::invalidate);
+    }
+
+    private final String configId;
+    private final long matchedTtlMillis;
+    private final long clearedTtlMillis;
+    private final long failedTtlMillis;
+    private final Entries entries;
+
+    public HookVerdictCache(String configId, long matchedTtlMillis, long clearedTtlMillis, long failedTtlMillis, int maxEntries) {
+        this.configId = configId == null ? "" : configId;
+        this.matchedTtlMillis = matchedTtlMillis;
+        this.clearedTtlMillis = clearedTtlMillis;
+        this.failedTtlMillis = failedTtlMillis;
+        this.entries = new Entries(maxEntries);
+    }
+
+    public static void addConfigProperties(List<ProviderConfigProperty> properties, String prefix) {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(prefix + MATCHED_TTL);
+        property.setLabel("Hook Cache TTL (yes)");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Seconds to remember a \"yes\" hook answer. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + CLEARED_TTL);
+        property.setLabel("Hook Cache TTL (no)");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Seconds to remember any other hook answer. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + FAILED_TTL);
+        property.setLabel("Hook Cache TTL (error)");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Seconds to remember a failed or timed out hook request. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + MAX_ENTRIES);
+        property.setLabel("Hook Cache Size");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Maximum number of cached hook answers, least recently used are evicted first. Default " + DEFAULT_MAX_ENTRIES);
+        properties.add(property);
+    }
+
+    /**
+     * Returns the cache for an execution config, or null when every TTL is disabled.
+     */
+    public static HookVerdictCache forConfig(String configId, Map<String, String> config, String prefix) {
+        String source = config.get(prefix + MATCHED_TTL) + "|" + config.get(prefix + CLEARED_TTL)
+                + "|" + config.get(prefix + FAILED_TTL) + "|" + config.get(prefix + MAX_ENTRIES);
+        return CACHES.get(configId, source, s -> {
+            long matched = seconds(config.get(prefix + MATCHED_TTL));
+            long cleared = seconds(config.get(prefix + CLEARED_TTL));
+            long failed = seconds(config.get(prefix + FAILED_TTL));
+            if (matched == 0 && cleared == 0 && failed == 0) {
+                return null;
+            }
+            int maxEntries = (int) Math.min(Integer.MAX_VALUE, number(config.get(prefix + MAX_ENTRIES), DEFAULT_MAX_ENTRIES));
+            return new HookVerdictCache(configId, TimeUnit.SECONDS.toMillis(matched), TimeUnit.SECONDS.toMillis(cleared),
+                    TimeUnit.SECONDS.toMillis(failed), Math.max(1, maxEntries));
+        });
+    }
+
+    private static long seconds(String value) {
+        return number(value, 0);
+    }
+
+    private static long number(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid hook cache setting '%s', using %d", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public HookVerdict get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expires > now) {
+                return entry.verdict;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        UsernameClusterCache clusterCache = UsernameClusterCache.get();
+        Entry shared = clusterCache == null ? null : Entry.decode(clusterCache.getVerdict(configId, key));
+        if (shared == null || shared.expires <= now) {
+            return null;
+        }
+        synchronized (entries) {
+            entries.put(key, shared);
+        }
+        return shared.verdict;
+    }
+
+    public void put(String key, HookVerdict verdict) {
+        long ttl;
+        switch (verdict.getResult()) {
+            case MATCHED:
+                ttl = matchedTtlMillis;
+                break;
+            case CLEARED:
+                ttl = clearedTtlMillis;
+                break;
+            case UNAVAILABLE:
+                return;
+            default:
+                ttl = failedTtlMillis;
+        }
+        if (ttl > 0 && verdict.getTtlSeconds() >= 0) {
+            ttl = Math.min(ttl, TimeUnit.SECONDS.toMillis(verdict.getTtlSeconds()));
+        }
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(verdict, ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        UsernameClusterCache clusterCache = UsernameClusterCache.get();
+        if (clusterCache != null) {
+            clusterCache.putVerdict(configId, key, entry.encode(), ttl);
+        }
+    }
+
+    private static class Entry {
+        final HookVerdict verdict;
+        final long expires;
+
+        Entry(HookVerdict verdict, long expires) {
+            this.verdict = verdict;
+            this.expires = expires;
+        }
+
+        /**
+         * Plain text form for the shared cache, so other nodes need none of this module's classes to hold it.
+         */
+        String encode() {
+            return expires + "\t" + verdict.getResult().name() + "\t" + verdict.getTtlSeconds()
+                    + "\t" + (verdict.getReason() == null ? "" : verdict.getReason());
+        }
+
+        static Entry decode(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split("\t", 4);
+            if (parts.length < 4) {
+                return null;
+            }
+            try {
+                HookVerdict verdict = new HookVerdict(UsernameHook.Result.valueOf(parts[1]),
+                        parts[3].isEmpty() ? null : parts[3], Long.parseLong(parts[2]));
+                return new Entry(verdict, Long.parseLong(parts[0]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Entries in access order, dropping the least recently used beyond the limit.
+     */
+    private static class Entries extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Entries(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
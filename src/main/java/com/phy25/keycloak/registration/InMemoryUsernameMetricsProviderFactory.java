@@ -0,0 +1,165 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Default metrics provider: lock-free counters and timers kept in memory,
+ * readable with {@link #scrape()} in the Prometheus text format, which the
+ * {@code registration-username/metrics} endpoint of the admin realm serves.
+ */
+public class InMemoryUsernameMetricsProviderFactory implements UsernameMetricsProviderFactory, UsernameMetricsProvider {
+
+    public static final String PROVIDER_ID = "default";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Timer>> checks = new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+    private final ConcurrentMap<String, ConcurrentMap<UsernameHook.Result, Timer>> hooks = new ConcurrentHashMap<String, ConcurrentMap<UsernameHook.Result, Timer>>();
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> rejections = new ConcurrentHashMap<String, ConcurrentMap<String, LongAdder>>();
+
+    private static volatile InMemoryUsernameMetricsProviderFactory instance;
+
+    /**
+     * The registry of the running server, or null when another provider is in use.
+     */
+    public static InMemoryUsernameMetricsProviderFactory getInstance() {
+        return instance;
+    }
+
+    @Override
+    public void recordCheck(String action, String check, long nanos) {
+        checks.computeIfAbsent(action, a -> new ConcurrentHashMap<String, Timer>())
+                .computeIfAbsent(check, c -> new Timer())
+                .record(nanos);
+    }
+
+    @Override
+    public void recordHook(String action, UsernameHook.Result result, long nanos) {
+        hooks.computeIfAbsent(action, a -> new ConcurrentHashMap<UsernameHook.Result, Timer>())
+                .computeIfAbsent(result, r -> new Timer())
+                .record(nanos);
+    }
+
+    @Override
+    public void recordRejection(String action, String messageKey) {
+        rejections.computeIfAbsent(action, a -> new ConcurrentHashMap<String, LongAdder>())
+                .computeIfAbsent(messageKey, m -> new LongAdder())
+                .increment();
+    }
+
+    /**
+     * The metrics in the Prometheus text format. The longest time of each timer is
+     * a gauge of its own next to the summary, named with a {@code _max} suffix.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder max = new StringBuilder();
+        out.append("# TYPE username_check_seconds summary\n");
+        max.append("# TYPE username_check_seconds_max gauge\n");
+        for (Map.Entry<String, ConcurrentMap<String, Timer>> action : checks.entrySet()) {
+            for (Map.Entry<String, Timer> check : action.getValue().entrySet()) {
+                check.getValue().write(out, max, "username_check_seconds",
+                        labels("action", action.getKey(), "check", check.getKey()));
+            }
+        }
+        out.append(max);
+        max.setLength(0);
+        out.append("# TYPE username_hook_seconds summary\n");
+        max.append("# TYPE username_hook_seconds_max gauge\n");
+        for (Map.Entry<String, ConcurrentMap<UsernameHook.Result, Timer>> action : hooks.entrySet()) {
+            for (Map.Entry<UsernameHook.Result, Timer> result : action.getValue().entrySet()) {
+                result.getValue().write(out, max, "username_hook_seconds",
+                        labels("action", action.getKey(), "result", result.getKey().name().toLowerCase(Locale.ROOT)));
+            }
+        }
+        out.append(max);
+        out.append("# TYPE username_rejections_total counter\n");
+        for (Map.Entry<String, ConcurrentMap<String, LongAdder>> action : rejections.entrySet()) {
+            for (Map.Entry<String, LongAdder> message : action.getValue().entrySet()) {
+                out.append("username_rejections_total{").append(labels("action", action.getKey(), "message", message.getKey()))
+                        .append("} ").append(message.getValue().sum()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Label pairs with their values escaped; message keys are free text set by
+     * admins, e.g. the rate limit message.
+     */
+    static String labels(String... namesAndValues) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    out.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(ch);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    @Override
+    public UsernameMetricsProvider create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        instance = this;
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    private static class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        void write(StringBuilder out, StringBuilder maxOut, String name, String labels) {
+            double seconds = (double) totalNanos.sum() / TimeUnit.SECONDS.toNanos(1);
+            double max = (double) maxNanos.get() / TimeUnit.SECONDS.toNanos(1);
+            out.append(name).append("_count{").append(labels).append("} ").append(count.sum()).append('\n');
+            out.append(name).append("_sum{").append(labels).append("} ").append(seconds).append('\n');
+            maxOut.append(name).append("_max{").append(labels).append("} ").append(max).append('\n');
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Immutable lookup index over the invalid username list. Entries are matched
+ * case-insensitively: {@code admin} matches exactly, {@code admin*} matches any
+ * username starting with "admin" and {@code *admin} any username ending with it.
+ * Other entries with a {@code *}, such as {@code *admin*} or a bare {@code *}, are
+ * ignored with a warning; words that may not appear anywhere belong in the
+ * profanity list. An index built with lookalike matching keeps the {@link UsernameSkeleton} of
+ * each entry and compares candidates by their skeleton, so "admin" spelled with
+ * a Cyrillic a or as "adm1n" is caught by an "admin" entry at the cost of one
+ * normalization pass per candidate.
+ */
+public class InvalidUsernameIndex {
+
+    private static final Logger logger = Logger.getLogger(InvalidUsernameIndex.class);
+
+    public static final InvalidUsernameIndex EMPTY = new InvalidUsernameIndex(new HashSet<String>(), new TrieBuilder(), new TrieBuilder(), false);
+
+    private final Set<String> exact;
+    private final Node prefixes;
+    private final Node suffixes;
+    private final boolean skeleton;
+
+    private InvalidUsernameIndex(Set<String> exact, TrieBuilder prefixes, TrieBuilder suffixes, boolean skeleton) {
+        this.exact = exact;
+        this.prefixes = prefixes.build();
+        this.suffixes = suffixes.build();
+        this.skeleton = skeleton;
+    }
+
+    public static InvalidUsernameIndex parse(String invalidUsernames) {
+        return parse(invalidUsernames, false);
+    }
+
+    public static InvalidUsernameIndex parse(String invalidUsernames, boolean skeleton) {
+        if (invalidUsernames == null || invalidUsernames.trim().isEmpty()) {
+            return EMPTY;
+        }
+        Builder builder = new Builder(skeleton);
+        for (String entry : invalidUsernames.split(",")) {
+            builder.add(entry);
+        }
+        return builder.build();
+    }
+
+    public boolean matches(String username) {
+        if (username == null) {
+            return false;
+        }
+        return matchesNormalized(normalize(username));
+    }
+
+    /**
+     * The form of a username that {@link #matchesNormalized(String)} expects.
+     */
+    public String normalize(String username) {
+        return skeleton ? UsernameSkeleton.of(username) : username.toLowerCase(Locale.ROOT);
+    }
+
+    public boolean matchesNormalized(String username) {
+        if (exact.contains(username)) {
+            return true;
+        }
+        int length = username.length();
+        Node node = prefixes;
+        for (int i = 0; node != null && !node.terminal && i < length; i++) {
+            node = node.child(username.charAt(i));
+        }
+        if (node != null && node.terminal) {
+            return true;
+        }
+        node = suffixes;
+        for (int i = length - 1; node != null && !node.terminal && i >= 0; i--) {
+            node = node.child(username.charAt(i));
+        }
+        return node != null && node.terminal;
+    }
+
+    public int size() {
+        return exact.size() + prefixes.count() + suffixes.count();
+    }
+
+    public static class Builder {
+        private final Set<String> exact = new HashSet<String>();
+        private final TrieBuilder prefixes = new TrieBuilder();
+        private final TrieBuilder suffixes = new TrieBuilder();
+        private final boolean skeleton;
+
+        public Builder() {
+            this(false);
+        }
+
+        public Builder(boolean skeleton) {
+            this.skeleton = skeleton;
+        }
+
+        public Builder add(String entry) {
+            if (entry == null) {
+                return this;
+            }
+            String name = skeleton ? UsernameSkeleton.of(entry.trim()) : entry.trim().toLowerCase(Locale.ROOT);
+            int wildcard = name.indexOf('*');
+            if (name.isEmpty()) {
+                return this;
+            } else if (wildcard < 0) {
+                exact.add(name);
+            } else if (name.length() > 1 && wildcard == name.length() - 1) {
+                prefixes.add(name.substring(0, wildcard), false);
+            } else if (name.length() > 1 && wildcard == 0 && name.indexOf('*', 1) < 0) {
+                suffixes.add(name.substring(1), true);
+            } else {
+                logger.warnf("Invalid username entry '%s' ignored, only one leading or trailing * is supported", entry.trim());
+            }
+            return this;
+        }
+
+        public InvalidUsernameIndex build() {
+            return new InvalidUsernameIndex(new HashSet<String>(exact), prefixes, suffixes, skeleton);
+        }
+    }
+
+    private static class TrieBuilder {
+        final TreeMap<Character, TrieBuilder> children = new TreeMap<Character, TrieBuilder>();
+        boolean terminal;
+
+        void add(String key, boolean reversed) {
+            TrieBuilder node = this;
+            int length = key.length();
+            for (int i = 0; i < length; i++) {
+                char c = key.charAt(reversed ? length - 1 - i : i);
+                TrieBuilder child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieBuilder();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+
+        Node build() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, TrieBuilder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+                i++;
+            }
+            return new Node(keys, nodes, terminal);
+        }
+    }
+
+    private static class Node {
+        final char[] keys;
+        final Node[] children;
+        final boolean terminal;
+
+        Node(char[] keys, Node[] children, boolean terminal) {
+            this.keys = keys;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        int count() {
+            int count = terminal ? 1 : 0;
+            for (Node child : children) {
+                count += child.count();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.UserStorageProvider;
+
+/**
+ * Per-realm Bloom filter of the emails known to the user store. A miss means the
+ * email is definitely not in use and the store lookup can be skipped; a hit only
+ * means it might be. The filter is built in the background by paging through the
+ * realm's users, fed with new emails as users register or change their email,
+ * and rebuilt periodically to pick up changes made elsewhere (imports, sync).
+ * Until the first build completes every email is reported as possibly known.
+ * Only the node's own registrations reach the filter, so it is used only while
+ * the node is alone: in a cluster with other nodes every email is reported as
+ * possibly known, and the filters are dropped when nodes join or leave.
+ */
+public class KnownEmailFilter {
+
+    private static final Logger logger = Logger.getLogger(KnownEmailFilter.class);
+
+    private static final int PAGE_SIZE = 1000;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, KnownEmailFilter> FILTERS = new ConcurrentHashMap<String, KnownEmailFilter>();
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "known-email-filter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile KeycloakSessionFactory sessionFactory;
+
+    static {
+        UsernameClusterCache.addViewListener(() -> FILTERS.keySet().forEach(KnownEmailFilter::invalidate));
+    }
+
+    private final String realmId;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+    private volatile Bloom current;
+    private volatile long builtAt;
+    private volatile long attemptedAt;
+
+    private KnownEmailFilter(String realmId) {
+        this.realmId = realmId;
+    }
+
+    public static void setSessionFactory(KeycloakSessionFactory factory) {
+        sessionFactory = factory;
+    }
+
+    /**
+     * The filter of a realm, scheduling a rebuild when it is missing, stale or full.
+     */
+    public static KnownEmailFilter forRealm(String realmId, long rebuildMillis) {
+        KnownEmailFilter filter = FILTERS.computeIfAbsent(realmId, KnownEmailFilter::new);
+        if (!UsernameClusterCache.isSingleNode()) {
+            return filter;
+        }
+        Bloom bloom = filter.current;
+        long now = System.currentTimeMillis();
+        if (bloom == null ? now - filter.attemptedAt > RETRY_MILLIS
+                : bloom.isFull() || (rebuildMillis > 0 && now - filter.builtAt > rebuildMillis)) {
+            filter.scheduleRebuild();
+        }
+        return filter;
+    }
+
+    /**
+     * Adds an email to the realm's filter, if the realm has one.
+     */
+    public static void recordEmail(String realmId, String email) {
+        KnownEmailFilter filter = realmId == null ? null : FILTERS.get(realmId);
+        if (filter != null) {
+            filter.add(email);
+        }
+    }
+
+    /**
+     * Drops the realm's filter when an email may have been added without being
+     * recorded. Lookups go to the store until the next rebuild completes.
+     */
+    public static void invalidate(String realmId) {
+        KnownEmailFilter filter = realmId == null ? null : FILTERS.get(realmId);
+        if (filter != null) {
+            filter.generation.incrementAndGet();
+            filter.current = null;
+            filter.attemptedAt = 0;
+        }
+    }
+
+    public boolean isReady() {
+        return current != null;
+    }
+
+    public boolean mightContain(String email) {
+        Bloom bloom = current;
+        // emails registered on other nodes never reach this filter
+        return bloom == null || email == null || !UsernameClusterCache.isSingleNode() || bloom.mightContain(normalize(email));
+    }
+
+    public void add(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            return;
+        }
+        String normalized = normalize(email);
+        if (rebuilding.get()) {
+            pending.add(normalized);
+        }
+        Bloom bloom = current;
+        if (bloom != null) {
+            bloom.add(normalized);
+        }
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void scheduleRebuild() {
+        if (sessionFactory == null || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            REBUILDER.execute(this::rebuild);
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+        }
+    }
+
+    private void rebuild() {
+        long started = System.currentTimeMillis();
+        int startGeneration = generation.get();
+        attemptedAt = started;
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                if (realm == null) {
+                    FILTERS.remove(realmId);
+                    return;
+                }
+                if (hasUserStorage(realm)) {
+                    logger.warnf("Realm %s has user federation, known email filter disabled", realm.getName());
+                    current = null;
+                    return;
+                }
+                int count = session.users().getUsersCount(realm);
+                Bloom bloom = new Bloom(Math.max(MIN_CAPACITY, count + count / 4));
+                UserStoreQueries.forEachEmail(session, realm, PAGE_SIZE, email -> bloom.add(normalize(email)));
+                if (generation.get() != startGeneration) {
+                    // invalidated while paging, the scan may have missed the new email
+                    attemptedAt = 0;
+                    return;
+                }
+                current = bloom;
+                builtAt = started;
+                logger.debugf("Known email filter for realm %s built in %d ms, %d users, %d bits",
+                        realm.getName(), System.currentTimeMillis() - started, count, bloom.bits);
+            });
+        } catch (RuntimeException e) {
+            logger.warnf(e, "Failed to build known email filter for realm %s", realmId);
+        } finally {
+            // emails recorded while paging, including any after the new filter was published
+            rebuilding.set(false);
+            Bloom bloom = current;
+            for (String email = pending.poll(); email != null; email = pending.poll()) {
+                if (bloom != null) {
+                    bloom.add(email);
+                }
+            }
+        }
+    }
+
+    /**
+     * Federated users only reach the local store once they are imported, on first
+     * lookup or sync, and a provider that does not import them never lists them, so
+     * with any user storage provider the filter could miss an email in use.
+     */
+    static boolean hasUserStorage(RealmModel realm) {
+        return !realm.getComponents(realm.getId(), UserStorageProvider.class.getName()).isEmpty();
+    }
+
+    /**
+     * Fixed-size Bloom filter with lock-free inserts, using double hashing over a
+     * 64-bit hash of the normalized email.
+     */
+    private static class Bloom {
+        final long bits;
+        final int hashes;
+        final long capacity;
+        final AtomicLongArray words;
+        final AtomicLong added = new AtomicLong();
+
+        Bloom(long capacity) {
+            double ln2 = Math.log(2);
+            long size = (long) Math.ceil(-capacity * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, (size + 63) / 64);
+            this.bits = words * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * ln2));
+            this.capacity = capacity;
+            this.words = new AtomicLongArray(words);
+        }
+
+        boolean isFull() {
+            return added.get() > capacity;
+        }
+
+        void add(String email) {
+            long hash1 = hash(email);
+            long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value = words.get(word);
+                while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                    value = words.get(word);
+                }
+            }
+            added.incrementAndGet();
+        }
+
+        boolean mightContain(String email) {
+            long hash1 = hash(email);
+            long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String value) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+
+        private static long mix(long value) {
+            value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+            value = (value ^ (value >>> 33)) * 0xC4CEB185EC5A6A1BL;
+            return value ^ (value >>> 33);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Rejects usernames shorter or longer than the configured limits, counted in
+ * code points.
+ */
+public class LengthUsernameRule implements UsernameRule, UsernameRuleFactory {
+
+    private static final Logger logger = Logger.getLogger(LengthUsernameRule.class);
+
+    public static final String PROVIDER_ID = "length";
+    public static final String MIN_LENGTH = "profile.username.min-length";
+    public static final String MAX_LENGTH = "profile.username.max-length";
+
+    private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = new ArrayList<ProviderConfigProperty>();
+
+    static {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(MIN_LENGTH);
+        property.setLabel("Minimum Username Length");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Shortest accepted username. Empty for no limit");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(MAX_LENGTH);
+        property.setLabel("Maximum Username Length");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Longest accepted username. Empty for no limit");
+        CONFIG_PROPERTIES.add(property);
+    }
+
+    private static int[] parseLimits(String minLength, String maxLength) {
+        return new int[]{number(minLength, 0), number(maxLength, Integer.MAX_VALUE)};
+    }
+
+    private static int number(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid username length limit '%s', limit disabled", value);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public Object compile(String configId, Map<String, String> config) {
+        String minLength = config.get(MIN_LENGTH);
+        String maxLength = config.get(MAX_LENGTH);
+        if (minLength == null && maxLength == null) {
+            return null;
+        }
+        return parseLimits(minLength, maxLength);
+    }
+
+    @Override
+    public FormMessage check(UsernameRuleContext context) {
+        int[] limits = context.getCompiled(PROVIDER_ID);
+        if (limits == null) {
+            return null;
+        }
+        String username = context.getUsername();
+        int length = username.codePointCount(0, username.length());
+        if (length < limits[0]) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_TOO_SHORT, limits[0]);
+        }
+        if (length > limits[1]) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_TOO_LONG, limits[1]);
+        }
+        return null;
+    }
+
+    @Override
+    public int getOrder() {
+        return 100;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Rejects usernames outside the length limits";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        return CONFIG_PROPERTIES;
+    }
+
+    @Override
+    public UsernameRule create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
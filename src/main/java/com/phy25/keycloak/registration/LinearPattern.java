@@ -0,0 +1,764 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A regular expression matched in time proportional to the input, whatever the
+ * pattern, for username patterns entered by admins. The pattern is compiled to
+ * a Thompson automaton whose deterministic states are built lazily while
+ * matching and shared between threads, the way RE2 does it; there is no
+ * backtracking.
+ * <p>
+ * Supported, with the meaning they have in {@link java.util.regex.Pattern}:
+ * literals, {@code .}, classes such as {@code [a-z_]} and {@code [^0-9]},
+ * {@code \d \w \s} and their negations, {@code \t \n \r \f \a \e}, {@code \xhh},
+ * {@code \x{h...}}, &#92;uhhhh, octal {@code \0nn}, escaped punctuation,
+ * groups {@code (...)}, {@code (?:...)}, {@code (?<name>...)}, alternation,
+ * and the quantifiers {@code * + ? {n} {n,} {n,m}}, greedy or lazy. {@code ^}
+ * and {@code $} are accepted at the very start and end of the pattern. Anything
+ * else, such as backreferences, lookaround, boundaries, possessive quantifiers,
+ * inline flags, Unicode properties or class intersections, is rejected with a
+ * {@link PatternSyntaxException}.
+ */
+public final class LinearPattern {
+
+    // automaton states a pattern may compile to, bounding what {n,m} can expand to
+    static final int MAX_STATES = 10000;
+    // deterministic states kept per pattern; past that, steps are computed without caching
+    private static final int MAX_CACHED_STATES = 2048;
+    // non-ASCII transitions kept per deterministic state
+    private static final int MAX_CACHED_OTHER = 256;
+
+    private static final int SET = 0;
+    private static final int SPLIT = 1;
+    private static final int MATCH = 2;
+
+    private final String pattern;
+    private final int[] type;
+    private final int[] out;
+    private final int[] out2;
+    private final CodePointSet[] sets;
+    private final ConcurrentMap<Key, State> states = new ConcurrentHashMap<Key, State>();
+    private final State initial;
+
+    private LinearPattern(String pattern, Builder builder, int start) {
+        this.pattern = pattern;
+        this.type = Arrays.copyOf(builder.type, builder.size);
+        this.out = Arrays.copyOf(builder.out, builder.size);
+        this.out2 = Arrays.copyOf(builder.out2, builder.size);
+        this.sets = Arrays.copyOf(builder.sets, builder.size);
+        this.initial = state(closure(new int[]{start}));
+    }
+
+    /**
+     * Compiles the pattern, or throws when it is invalid or uses a construct the
+     * engine does not support.
+     */
+    public static LinearPattern compile(String regex) {
+        Parser parser = new Parser(regex);
+        Node node = parser.parse();
+        Builder builder = new Builder(regex);
+        int match = builder.add(MATCH, -1, -1, null);
+        int start = builder.compile(node, match);
+        return new LinearPattern(regex, builder, start);
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    /**
+     * Whether the whole input matches, like {@code Pattern.matcher(input).matches()}.
+     */
+    public boolean matches(CharSequence input) {
+        State state = initial;
+        for (int i = 0; i < input.length(); ) {
+            int c = Character.codePointAt(input, i);
+            i += Character.charCount(c);
+            state = next(state, c);
+            if (state.dead) {
+                return false;
+            }
+        }
+        return state.accepting;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private State next(State state, int c) {
+        State next;
+        if (c < 128) {
+            next = state.ascii[c];
+            if (next == null) {
+                next = state(step(state.members, c));
+                state.ascii[c] = next;
+            }
+        } else {
+            next = state.other.get(c);
+            if (next == null) {
+                next = state(step(state.members, c));
+                if (state.other.size() < MAX_CACHED_OTHER) {
+                    state.other.put(c, next);
+                }
+            }
+        }
+        return next;
+    }
+
+    private State state(int[] members) {
+        Key key = new Key(members);
+        State state = states.get(key);
+        if (state != null) {
+            return state;
+        }
+        state = new State(members, isAccepting(members));
+        if (states.size() >= MAX_CACHED_STATES) {
+            return state;
+        }
+        State existing = states.putIfAbsent(key, state);
+        return existing == null ? state : existing;
+    }
+
+    private boolean isAccepting(int[] members) {
+        for (int member : members) {
+            if (type[member] == MATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The automaton states reached from the given ones by reading c.
+     */
+    private int[] step(int[] members, int c) {
+        int[] targets = new int[members.length];
+        int count = 0;
+        for (int member : members) {
+            if (type[member] == SET && sets[member].contains(c)) {
+                targets[count++] = out[member];
+            }
+        }
+        return closure(Arrays.copyOf(targets, count));
+    }
+
+    /**
+     * The character-reading and matching states reachable from the given ones
+     * without reading, sorted.
+     */
+    private int[] closure(int[] from) {
+        boolean[] seen = new boolean[type.length];
+        // a state is expanded once and pushes at most two others
+        int[] stack = new int[from.length + 2 * type.length];
+        int[] result = new int[type.length];
+        int top = 0;
+        int count = 0;
+        for (int state : from) {
+            stack[top++] = state;
+        }
+        while (top > 0) {
+            int state = stack[--top];
+            if (seen[state]) {
+                continue;
+            }
+            seen[state] = true;
+            if (type[state] == SPLIT) {
+                stack[top++] = out2[state];
+                stack[top++] = out[state];
+            } else {
+                result[count++] = state;
+            }
+        }
+        int[] members = Arrays.copyOf(result, count);
+        Arrays.sort(members);
+        return members;
+    }
+
+    private static class State {
+        final int[] members;
+        final boolean accepting;
+        final boolean dead;
+        // written by whichever thread computes a transition first; a lost write is only recomputed
+        final State[] ascii = new State[128];
+        final ConcurrentMap<Integer, State> other = new ConcurrentHashMap<Integer, State>();
+
+        State(int[] members, boolean accepting) {
+            this.members = members;
+            this.accepting = accepting;
+            this.dead = members.length == 0;
+        }
+    }
+
+    private static class Key {
+        final int[] members;
+        final int hash;
+
+        Key(int[] members) {
+            this.members = members;
+            this.hash = Arrays.hashCode(members);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(members, ((Key) o).members);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Code points as sorted, disjoint, inclusive ranges {@code [lo0, hi0, lo1, hi1, ...]}.
+     */
+    static final class CodePointSet {
+        static final CodePointSet EMPTY = new CodePointSet(new int[0]);
+        static final CodePointSet DIGIT = range('0', '9');
+        static final CodePointSet WORD = range('a', 'z').union(range('A', 'Z')).union(range('0', '9')).union(range('_', '_'));
+        static final CodePointSet SPACE = range(' ', ' ').union(range('\t', '\r'));
+        // everything but the line terminators, as . in java.util.regex
+        static final CodePointSet DOT = range('\n', '\n').union(range('\r', '\r')).union(range(0x85, 0x85))
+                .union(range(0x2028, 0x2029)).complement();
+
+        private final int[] ranges;
+
+        private CodePointSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CodePointSet range(int lo, int hi) {
+            return new CodePointSet(new int[]{lo, hi});
+        }
+
+        boolean isSingle() {
+            return ranges.length == 2 && ranges[0] == ranges[1];
+        }
+
+        int single() {
+            return ranges[0];
+        }
+
+        boolean contains(int c) {
+            int lo = 0;
+            int hi = ranges.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (c < ranges[2 * mid]) {
+                    hi = mid - 1;
+                } else if (c > ranges[2 * mid + 1]) {
+                    lo = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CodePointSet union(CodePointSet other) {
+            int[] all = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+            System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+            Integer[] order = new Integer[all.length / 2];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(all[2 * a], all[2 * b]));
+            int[] merged = new int[all.length];
+            int count = 0;
+            for (int index : order) {
+                int lo = all[2 * index];
+                int hi = all[2 * index + 1];
+                if (count > 0 && lo <= merged[count - 1] + 1) {
+                    merged[count - 1] = Math.max(merged[count - 1], hi);
+                } else {
+                    merged[count++] = lo;
+                    merged[count++] = hi;
+                }
+            }
+            return new CodePointSet(Arrays.copyOf(merged, count));
+        }
+
+        CodePointSet complement() {
+            int[] result = new int[ranges.length + 2];
+            int count = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[count++] = next;
+                    result[count++] = ranges[i] - 1;
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= Character.MAX_CODE_POINT) {
+                result[count++] = next;
+                result[count++] = Character.MAX_CODE_POINT;
+            }
+            return new CodePointSet(Arrays.copyOf(result, count));
+        }
+    }
+
+    private static class Node {
+        static final int CHARS = 0;
+        static final int CONCAT = 1;
+        static final int ALTERNATE = 2;
+        static final int REPEAT = 3;
+
+        final int kind;
+        final CodePointSet chars;
+        final List<Node> children;
+        final int min;
+        // -1 for no upper bound
+        final int max;
+
+        private Node(int kind, CodePointSet chars, List<Node> children, int min, int max) {
+            this.kind = kind;
+            this.chars = chars;
+            this.children = children;
+            this.min = min;
+            this.max = max;
+        }
+
+        static Node chars(CodePointSet chars) {
+            return new Node(CHARS, chars, null, 0, 0);
+        }
+
+        static Node concat(List<Node> children) {
+            return children.size() == 1 ? children.get(0) : new Node(CONCAT, null, children, 0, 0);
+        }
+
+        static Node alternate(List<Node> children) {
+            return children.size() == 1 ? children.get(0) : new Node(ALTERNATE, null, children, 0, 0);
+        }
+
+        static Node repeat(Node child, int min, int max) {
+            List<Node> children = new ArrayList<Node>(1);
+            children.add(child);
+            return new Node(REPEAT, null, children, min, max);
+        }
+    }
+
+    /**
+     * Builds the automaton from the syntax tree, back to front: each node is
+     * compiled with the state to continue at once it has matched.
+     */
+    private static class Builder {
+        final String regex;
+        int[] type = new int[64];
+        int[] out = new int[64];
+        int[] out2 = new int[64];
+        CodePointSet[] sets = new CodePointSet[64];
+        int size;
+
+        Builder(String regex) {
+            this.regex = regex;
+        }
+
+        int add(int stateType, int next, int next2, CodePointSet set) {
+            if (size == MAX_STATES) {
+                throw new PatternSyntaxException("Pattern too large for the linear-time engine", regex, -1);
+            }
+            if (size == type.length) {
+                type = Arrays.copyOf(type, size * 2);
+                out = Arrays.copyOf(out, size * 2);
+                out2 = Arrays.copyOf(out2, size * 2);
+                sets = Arrays.copyOf(sets, size * 2);
+            }
+            type[size] = stateType;
+            out[size] = next;
+            out2[size] = next2;
+            sets[size] = set;
+            return size++;
+        }
+
+        int compile(Node node, int next) {
+            switch (node.kind) {
+                case Node.CHARS:
+                    return add(SET, next, -1, node.chars);
+                case Node.CONCAT:
+                    for (int i = node.children.size() - 1; i >= 0; i--) {
+                        next = compile(node.children.get(i), next);
+                    }
+                    return next;
+                case Node.ALTERNATE:
+                    int start = compile(node.children.get(node.children.size() - 1), next);
+                    for (int i = node.children.size() - 2; i >= 0; i--) {
+                        start = add(SPLIT, compile(node.children.get(i), next), start, null);
+                    }
+                    return start;
+                default:
+                    return compileRepeat(node.children.get(0), node.min, node.max, next);
+            }
+        }
+
+        private int compileRepeat(Node child, int min, int max, int next) {
+            int start = next;
+            if (max < 0) {
+                // loop: a split that either reads the child again or leaves
+                int loop = add(SPLIT, -1, next, null);
+                out[loop] = compile(child, loop);
+                start = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    start = add(SPLIT, compile(child, start), next, null);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                start = compile(child, start);
+            }
+            return start;
+        }
+    }
+
+    private static class Parser {
+        final String regex;
+        int pos;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() {
+            if (regex.startsWith("^")) {
+                pos++;
+            }
+            Node node = parseAlternation();
+            if (pos < regex.length()) {
+                throw error(regex.charAt(pos) == ')' ? "Unmatched closing ')'" : "Unexpected character");
+            }
+            return node;
+        }
+
+        private PatternSyntaxException error(String description) {
+            return new PatternSyntaxException(description, regex, pos);
+        }
+
+        // escapes are consumed with the character they escape, so a '$' seen here is unescaped
+        private boolean atEndAnchor() {
+            return pos == regex.length() - 1 && regex.charAt(pos) == '$';
+        }
+
+        private Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(parseConcatenation());
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcatenation());
+            }
+            return Node.alternate(alternatives);
+        }
+
+        private Node parseConcatenation() {
+            List<Node> items = new ArrayList<Node>();
+            while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+                if (atEndAnchor()) {
+                    pos++;
+                    break;
+                }
+                items.add(parseQuantified());
+            }
+            return Node.concat(items);
+        }
+
+        private Node parseQuantified() {
+            Node atom = parseAtom();
+            if (pos >= regex.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            char c = regex.charAt(pos);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (pos < regex.length() && regex.charAt(pos) == ',') {
+                    pos++;
+                    max = pos < regex.length() && regex.charAt(pos) == '}' ? -1 : parseNumber();
+                }
+                if (pos >= regex.length() || regex.charAt(pos) != '}') {
+                    throw error("Unclosed counted closure");
+                }
+                pos++;
+                if (max >= 0 && max < min) {
+                    throw error("Illegal repetition range");
+                }
+            } else {
+                return atom;
+            }
+            if (pos < regex.length()) {
+                c = regex.charAt(pos);
+                if (c == '?') {
+                    // lazy, which makes no difference to a whole-input match
+                    pos++;
+                } else if (c == '+') {
+                    throw error("Possessive quantifiers are not supported");
+                }
+            }
+            if (pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) >= 0) {
+                throw error("Dangling meta character '" + regex.charAt(pos) + "'");
+            }
+            return Node.repeat(atom, min, max);
+        }
+
+        private int parseNumber() {
+            int start = pos;
+            while (pos < regex.length() && Character.isDigit(regex.charAt(pos)) && regex.charAt(pos) < 128) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Illegal repetition");
+            }
+            try {
+                int number = Integer.parseInt(regex.substring(start, pos));
+                if (number > MAX_STATES) {
+                    throw error("Repetition count too large for the linear-time engine");
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                throw error("Illegal repetition");
+            }
+        }
+
+        private Node parseAtom() {
+            int c = regex.codePointAt(pos);
+            switch (c) {
+                case '(':
+                    pos++;
+                    parseGroupPrefix();
+                    Node group = parseAlternation();
+                    if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                        throw error("Unclosed group");
+                    }
+                    pos++;
+                    return group;
+                case '[':
+                    pos++;
+                    return Node.chars(parseClass());
+                case '.':
+                    pos++;
+                    return Node.chars(CodePointSet.DOT);
+                case '\\':
+                    pos++;
+                    return Node.chars(parseEscape(false));
+                case '^':
+                    throw error("'^' is only supported at the start of the pattern");
+                case '$':
+                    throw error("'$' is only supported at the end of the pattern");
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw error("Dangling meta character '" + (char) c + "'");
+                default:
+                    pos += Character.charCount(c);
+                    return Node.chars(CodePointSet.range(c, c));
+            }
+        }
+
+        private void parseGroupPrefix() {
+            if (pos >= regex.length() || regex.charAt(pos) != '?') {
+                return;
+            }
+            pos++;
+            if (pos < regex.length() && regex.charAt(pos) == ':') {
+                pos++;
+                return;
+            }
+            if (pos + 1 < regex.length() && regex.charAt(pos) == '<' && Character.isLetter(regex.charAt(pos + 1))) {
+                int end = regex.indexOf('>', pos);
+                if (end < 0) {
+                    throw error("Unclosed group name");
+                }
+                pos = end + 1;
+                return;
+            }
+            throw error("Lookaround, atomic groups and inline flags are not supported");
+        }
+
+        private CodePointSet parseClass() {
+            boolean negated = false;
+            if (pos < regex.length() && regex.charAt(pos) == '^') {
+                negated = true;
+                pos++;
+            }
+            CodePointSet set = CodePointSet.EMPTY;
+            boolean first = true;
+            while (true) {
+                if (pos >= regex.length()) {
+                    throw error("Unclosed character class");
+                }
+                int c = regex.codePointAt(pos);
+                if (c == ']') {
+                    if (first) {
+                        throw error("Escape ']' at the start of a character class");
+                    }
+                    pos++;
+                    break;
+                }
+                if (c == '[') {
+                    throw error("Nested character classes are not supported");
+                }
+                if (c == '&' && regex.startsWith("&&", pos)) {
+                    throw error("Character class intersections are not supported");
+                }
+                CodePointSet item = parseClassItem();
+                if (item.isSingle() && pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    CodePointSet end = parseClassItem();
+                    if (!end.isSingle() || end.single() < item.single()) {
+                        throw error("Illegal character range");
+                    }
+                    item = CodePointSet.range(item.single(), end.single());
+                }
+                set = set.union(item);
+                first = false;
+            }
+            return negated ? set.complement() : set;
+        }
+
+        private CodePointSet parseClassItem() {
+            int c = regex.codePointAt(pos);
+            if (c == '[') {
+                throw error("Nested character classes are not supported");
+            }
+            if (c == '\\') {
+                pos++;
+                return parseEscape(true);
+            }
+            pos += Character.charCount(c);
+            return CodePointSet.range(c, c);
+        }
+
+        private CodePointSet parseEscape(boolean inClass) {
+            if (pos >= regex.length()) {
+                throw error("Unexpected internal error");
+            }
+            int c = regex.codePointAt(pos);
+            pos += Character.charCount(c);
+            switch (c) {
+                case 'd':
+                    return CodePointSet.DIGIT;
+                case 'D':
+                    return CodePointSet.DIGIT.complement();
+                case 'w':
+                    return CodePointSet.WORD;
+                case 'W':
+                    return CodePointSet.WORD.complement();
+                case 's':
+                    return CodePointSet.SPACE;
+                case 'S':
+                    return CodePointSet.SPACE.complement();
+                case 't':
+                    return single('\t');
+                case 'n':
+                    return single('\n');
+                case 'r':
+                    return single('\r');
+                case 'f':
+                    return single('\f');
+                case 'a':
+                    return single(0x07);
+                case 'e':
+                    return single(0x1B);
+                case '0':
+                    return single(parseOctal());
+                case 'x':
+                    return single(parseHex());
+                case 'u':
+                    return single(parseHexDigits(4));
+                case 'b':
+                case 'B':
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'G':
+                    throw error("Boundaries are not supported");
+                case 'p':
+                case 'P':
+                    throw error("Unicode properties are not supported");
+                default:
+                    if (c >= '1' && c <= '9' || c == 'k') {
+                        throw error("Backreferences are not supported");
+                    }
+                    if (c < 128 && Character.isLetterOrDigit(c)) {
+                        throw error("Unsupported escape sequence");
+                    }
+                    return single(c);
+            }
+        }
+
+        private CodePointSet single(int c) {
+            return CodePointSet.range(c, c);
+        }
+
+        private int parseOctal() {
+            int value = 0;
+            int digits = 0;
+            while (digits < 3 && pos < regex.length() && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7') {
+                int next = value * 8 + regex.charAt(pos) - '0';
+                if (next > 0377) {
+                    break;
+                }
+                value = next;
+                pos++;
+                digits++;
+            }
+            if (digits == 0) {
+                throw error("Illegal octal escape sequence");
+            }
+            return value;
+        }
+
+        private int parseHex() {
+            if (pos < regex.length() && regex.charAt(pos) == '{') {
+                int end = regex.indexOf('}', pos);
+                if (end < 0) {
+                    throw error("Unclosed hexadecimal escape sequence");
+                }
+                pos++;
+                int value = parseHexDigits(end - pos);
+                pos++;
+                if (value > Character.MAX_CODE_POINT) {
+                    throw error("Hexadecimal codepoint is too big");
+                }
+                return value;
+            }
+            return parseHexDigits(2);
+        }
+
+        private int parseHexDigits(int count) {
+            if (count < 1 || count > 8 || pos + count > regex.length()) {
+                throw error("Illegal hexadecimal escape sequence");
+            }
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int digit = Character.digit(regex.charAt(pos++), 16);
+                if (digit < 0) {
+                    throw error("Illegal hexadecimal escape sequence");
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Rejects usernames containing a word of the profanity list anywhere, also when
+ * written with separators or common digit substitutions ("b.a.d", "b4d"), and
+ * with lookalike matching enabled also when spelled with letters of another
+ * script. All words are matched in a single pass over the username (Aho-Corasick).
+ */
+public class ProfanityUsernameRule implements UsernameRule, UsernameRuleFactory {
+
+    public static final String PROVIDER_ID = "profanity";
+    public static final String PROFANITY = "profile.username.profanity";
+
+    private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = new ArrayList<ProviderConfigProperty>();
+
+    static {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(PROFANITY);
+        property.setLabel("Profanity List");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Words, separated by comma, that may not appear anywhere in a username");
+        CONFIG_PROPERTIES.add(property);
+    }
+
+    /**
+     * The compiled word list, and whether usernames are folded before matching.
+     */
+    static class Settings {
+        final Automaton automaton;
+        final boolean lookalikes;
+
+        Settings(Automaton automaton, boolean lookalikes) {
+            this.automaton = automaton;
+            this.lookalikes = lookalikes;
+        }
+    }
+
+    @Override
+    public Object compile(String configId, Map<String, String> config) {
+        String words = config.get(PROFANITY);
+        if (words == null || words.trim().isEmpty()) {
+            return null;
+        }
+        return new Settings(Automaton.parse(words), "true".equals(config.get(RegistrationUsername.LOOKALIKES)));
+    }
+
+    @Override
+    public FormMessage check(UsernameRuleContext context) {
+        Settings settings = context.getCompiled(PROVIDER_ID);
+        if (settings == null) {
+            return null;
+        }
+        String username = context.getUsername();
+        if (settings.lookalikes) {
+            username = UsernameSkeleton.fold(username);
+        }
+        if (settings.automaton.containsAny(username)) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_NOT_AVAILABLE);
+        }
+        return null;
+    }
+
+    /**
+     * Folds a character for matching: lower case with digit substitutions undone.
+     * Separators fold to 0 and are skipped.
+     */
+    private static char fold(char c) {
+        switch (c) {
+            case '0':
+                return 'o';
+            case '1':
+                return 'i';
+            case '3':
+                return 'e';
+            case '4':
+            case '@':
+                return 'a';
+            case '5':
+            case '$':
+                return 's';
+            case '7':
+                return 't';
+            case '.':
+            case '-':
+            case '_':
+            case ' ':
+                return 0;
+            default:
+                return Character.toLowerCase(c);
+        }
+    }
+
+    static class Automaton {
+        private final Node root;
+
+        private Automaton(Node root) {
+            this.root = root;
+        }
+
+        static Automaton parse(String words) {
+            BuildNode root = new BuildNode();
+            for (String word : words.split(",")) {
+                BuildNode node = root;
+                for (int i = 0; i < word.length(); i++) {
+                    char c = fold(word.charAt(i));
+                    if (c != 0) {
+                        node = node.children.computeIfAbsent(c, k -> new BuildNode());
+                    }
+                }
+                if (node != root) {
+                    node.output = true;
+                }
+            }
+            return new Automaton(root.freeze());
+        }
+
+        boolean containsAny(String username) {
+            Node state = root;
+            for (int i = 0; i < username.length(); i++) {
+                char c = fold(username.charAt(i));
+                if (c == 0) {
+                    continue;
+                }
+                Node next = state.child(c);
+                while (next == null && state != root) {
+                    state = state.fail;
+                    next = state.child(c);
+                }
+                state = next == null ? root : next;
+                if (state.output) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class BuildNode {
+        final Map<Character, BuildNode> children = new TreeMap<Character, BuildNode>();
+        boolean output;
+
+        Node freeze() {
+            Node root = freezeTree(this);
+            // failure links, breadth first
+            Deque<Node> queue = new ArrayDeque<Node>();
+            for (Node child : root.children) {
+                child.fail = root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                for (int i = 0; i < node.keys.length; i++) {
+                    Node child = node.children[i];
+                    Node fail = node.fail;
+                    Node target = fail.child(node.keys[i]);
+                    while (target == null && fail != root) {
+                        fail = fail.fail;
+                        target = fail.child(node.keys[i]);
+                    }
+                    child.fail = target == null ? root : target;
+                    child.output |= child.fail.output;
+                    queue.add(child);
+                }
+            }
+            root.fail = root;
+            return root;
+        }
+
+        private static Node freezeTree(BuildNode node) {
+            char[] keys = new char[node.children.size()];
+            Node[] children = new Node[keys.length];
+            int i = 0;
+            for (Map.Entry<Character, BuildNode> entry : node.children.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = freezeTree(entry.getValue());
+                i++;
+            }
+            return new Node(keys, children, node.output);
+        }
+    }
+
+    private static class Node {
+        final char[] keys;
+        final Node[] children;
+        boolean output;
+        Node fail;
+
+        Node(char[] keys, Node[] children, boolean output) {
+            this.keys = keys;
+            this.children = children;
+            this.output = output;
+        }
+
+        Node child(char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < c) {
+                    low = mid + 1;
+                } else if (keys[mid] > c) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return 500;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Rejects usernames containing a word of the profanity list";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        return CONFIG_PROPERTIES;
+    }
+
+    @Override
+    public UsernameRule create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
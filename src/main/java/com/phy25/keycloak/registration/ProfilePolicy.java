@@ -0,0 +1,28 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+/**
+ * A profile validation execution config, compiled once per config version
+ * through {@link CompiledConfigs}: the known email filter switch. Not changed
+ * after it is built.
+ */
+public class ProfilePolicy {
+
+    private final boolean knownEmailFilter;
+
+    private ProfilePolicy(Map<String, String> config) {
+        this.knownEmailFilter = "true".equals(config.get(RegistrationProfileFirstName.KNOWN_EMAIL_FILTER));
+    }
+
+    public static ProfilePolicy compile(String configId, Map<String, String> config) {
+        return new ProfilePolicy(config);
+    }
+
+    /**
+     * Whether the duplicate email check consults the realm's known email filter.
+     */
+    public boolean isKnownEmailFilter() {
+        return knownEmailFilter;
+    }
+}
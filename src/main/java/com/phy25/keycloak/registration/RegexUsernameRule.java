@@ -0,0 +1,145 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Rejects usernames that do not match the username pattern. Usernames longer
+ * than the input limit fail without being matched. With the linear-time option
+ * the pattern is matched by {@link LinearPattern}, which cannot be made to
+ * backtrack. A pattern that does not compile, or that the linear-time engine does
+ * not support when it is chosen, rejects every username with a configuration
+ * error until the config is fixed.
+ */
+public class RegexUsernameRule implements UsernameRule, UsernameRuleFactory {
+
+    private static final Logger logger = Logger.getLogger(RegexUsernameRule.class);
+
+    public static final String PROVIDER_ID = UsernameMetricsProvider.CHECK_REGEX;
+    // the length of Keycloak's username column
+    public static final int DEFAULT_MAX_INPUT = 255;
+
+    /**
+     * A compiled username pattern with its input limit.
+     */
+    static class UsernamePattern {
+        // stands in for a pattern that does not compile, so the check fails closed
+        static final UsernamePattern INVALID = new UsernamePattern(username -> false, 0);
+
+        private final Predicate<String> matcher;
+        private final int maxInput;
+
+        UsernamePattern(Predicate<String> matcher, int maxInput) {
+            this.matcher = matcher;
+            this.maxInput = maxInput;
+        }
+
+        boolean matches(String username) {
+            return username.length() <= maxInput && matcher.test(username);
+        }
+    }
+
+    static UsernamePattern compileUsernamePattern(String usernameRegex, boolean linear, String maxInput) {
+        if (usernameRegex == null || usernameRegex.isEmpty()) {
+            return null;
+        }
+        Predicate<String> matcher;
+        try {
+            if (linear) {
+                matcher = LinearPattern.compile(usernameRegex)::matches;
+            } else {
+                Pattern pattern = Pattern.compile(usernameRegex);
+                matcher = username -> pattern.matcher(username).matches();
+            }
+        } catch (PatternSyntaxException e) {
+            // a backtracking fallback would drop the guarantee linear mode was chosen for
+            logger.errorf("Invalid username pattern%s, registrations are rejected until the config is fixed: %s",
+                    linear ? " for the linear-time engine" : "", e.getMessage());
+            return UsernamePattern.INVALID;
+        }
+        return new UsernamePattern(matcher, parseMaxInput(maxInput));
+    }
+
+    private static int parseMaxInput(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_MAX_INPUT;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid username pattern input limit '%s', using %d", value, DEFAULT_MAX_INPUT);
+            return DEFAULT_MAX_INPUT;
+        }
+    }
+
+    @Override
+    public Object compile(String configId, Map<String, String> config) {
+        return compileUsernamePattern(config.get(RegistrationUsername.USERNAME_REGEX),
+                "true".equals(config.get(RegistrationUsername.REGEX_LINEAR)), config.get(RegistrationUsername.REGEX_MAX_INPUT));
+    }
+
+    @Override
+    public FormMessage check(UsernameRuleContext context) {
+        UsernamePattern pattern = context.getCompiled(PROVIDER_ID);
+        if (pattern == UsernamePattern.INVALID) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_PATTERN_INVALID);
+        }
+        if (pattern != null && !pattern.matches(context.getUsername())) {
+            return new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.INVALID_USER_NAME_CHARACTERS);
+        }
+        return null;
+    }
+
+    @Override
+    public int getOrder() {
+        return 400;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Rejects usernames that do not match the username pattern";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        // Username Pattern is part of the registration-username-action config
+        return Collections.emptyList();
+    }
+
+    @Override
+    public UsernameRule create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +20,7 @@ import org.keycloak.events.Details;
 import org.keycloak.events.Errors;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
@@ -30,6 +32,28 @@ import org.keycloak.services.validation.Validation;
 
 public class RegistrationProfileFirstName implements FormAction, FormActionFactory {
     public static final String PROVIDER_ID = "registration-profile-fn-action";
+    public static final String KNOWN_EMAIL_FILTER = "profile.email.known-filter";
+
+    private final CompiledConfigs<ProfilePolicy> policies = new CompiledConfigs<ProfilePolicy>(ProfilePolicy::compile);
+    private long knownEmailRebuildMillis;
+    private UsernameWarmUp warmUp;
+
+    private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = new ArrayList<ProviderConfigProperty>();
+
+    static {
+        addConfigProperties(CONFIG_PROPERTIES);
+    }
+
+    static void addConfigProperties(List<ProviderConfigProperty> properties) {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(KNOWN_EMAIL_FILTER);
+        property.setLabel("Known Email Filter");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Skip the duplicate email lookup for emails a per-realm filter knows to be new. Needs the "
+                + UsernameEventListenerProviderFactory.PROVIDER_ID + " event listener on the realm");
+        properties.add(property);
+    }
 
     @Override
     public String getHelpText() {
@@ -38,7 +62,7 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
 
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
-        return null;
+        return CONFIG_PROPERTIES;
     }
 
     @Override
@@ -64,7 +88,23 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
             emailValid = false;
         }
 
-        if (emailValid && !context.getRealm().isDuplicateEmailsAllowed() && context.getSession().users().getUserByEmail(email, context.getRealm()) != null) {
+        UsernameMetricsProvider metrics = UsernameMetricsProvider.of(context.getSession());
+        boolean emailExists = false;
+        if (emailValid && !context.getRealm().isDuplicateEmailsAllowed()) {
+            KnownEmailFilter filter = policies.get(context.getAuthenticatorConfig()).isKnownEmailFilter()
+                    ? KnownEmailFilter.forRealm(context.getRealm().getId(), knownEmailRebuildMillis) : null;
+            // a miss in the filter means the email is not in use
+            if (filter == null || filter.mightContain(email)) {
+                long started = System.nanoTime();
+                emailExists = context.getSession().users().getUserByEmail(email, context.getRealm()) != null;
+                metrics.recordCheck(PROVIDER_ID, UsernameMetricsProvider.CHECK_USER_LOOKUP, System.nanoTime() - started);
+            }
+            if (emailExists && filter != null) {
+                filter.add(email);
+            }
+        }
+
+        if (emailExists) {
             eventError = Errors.EMAIL_IN_USE;
             formData.remove(Validation.FIELD_EMAIL);
             context.getEvent().detail(Details.EMAIL, email);
@@ -72,6 +112,9 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
         }
 
         if (errors.size() > 0) {
+            for (FormMessage error : errors) {
+                metrics.recordRejection(PROVIDER_ID, error.getMessage());
+            }
             context.error(eventError);
             context.validationError(formData, errors);
             return;
@@ -83,10 +126,19 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
 
     @Override
     public void success(FormContext context) {
+        storeProfile(context);
+    }
+
+    /**
+     * Stores first name and email of the registration form on the new user.
+     */
+    static void storeProfile(FormContext context) {
         UserModel user = context.getUser();
         MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
         user.setFirstName(formData.getFirst(RegistrationPage.FIELD_FIRST_NAME));
         user.setEmail(formData.getFirst(RegistrationPage.FIELD_EMAIL));
+        KnownEmailFilter.recordEmail(context.getRealm().getId(), user.getEmail());
+        UnknownUserCache.invalidate(context.getRealm().getId(), user.getEmail());
     }
 
     @Override
@@ -132,7 +184,7 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
 
     @Override
     public boolean isConfigurable() {
-        return false;
+        return true;
     }
 
     private static AuthenticationExecutionModel.Requirement[] REQUIREMENT_CHOICES = {
@@ -150,12 +202,21 @@ public class RegistrationProfileFirstName implements FormAction, FormActionFacto
 
     @Override
     public void init(Config.Scope config) {
-
+        knownEmailRebuildMillis = TimeUnit.SECONDS.toMillis(config.getLong("knownEmailRebuildInterval", 3600L));
+        warmUp = UsernameWarmUp.create(config);
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-
+        KnownEmailFilter.setSessionFactory(factory);
+        warmUp.onStartup(factory, PROVIDER_ID, (session, realm) -> {
+            for (AuthenticatorConfigModel config : ExecutionConfigs.findAll(realm, PROVIDER_ID)) {
+                if (policies.get(config).isKnownEmailFilter() && !realm.isDuplicateEmailsAllowed()) {
+                    // starts building the filter in the background
+                    KnownEmailFilter.forRealm(realm.getId(), knownEmailRebuildMillis);
+                }
+            }
+        });
     }
 
     @Override
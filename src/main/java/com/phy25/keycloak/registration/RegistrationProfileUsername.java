@@ -0,0 +1,166 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.FormContext;
+import org.keycloak.authentication.ValidationContext;
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.events.Details;
+import org.keycloak.events.Errors;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.services.messages.Messages;
+import org.keycloak.services.validation.Validation;
+
+/**
+ * Username, first name and email validation in one execution, replacing
+ * Profile Validation with Invalid Usernames and Profile Validation (First Name).
+ * The form is read once, all errors are reported together, and whether the
+ * username or the email is already in use is asked with a single user store
+ * query. The hook is only called for a form that passed every other check.
+ */
+public class RegistrationProfileUsername extends RegistrationUsername {
+
+    public static final String PROVIDER_ID = "registration-profile-username-action";
+
+    private long knownEmailRebuildMillis;
+
+    @Override
+    public String getHelpText() {
+        return "Validates username, email and first name (without last name) in one step and stores first name and email in user data. " +
+                "Replaces Profile Validation with Invalid Usernames and Profile Validation (First Name). Relies on Registration User Creation.";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        List<ProviderConfigProperty> properties = new ArrayList<ProviderConfigProperty>(super.getConfigProperties());
+        RegistrationProfileFirstName.addConfigProperties(properties);
+        return properties;
+    }
+
+    @Override
+    public void validate(ValidationContext context) {
+        MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
+        List<FormMessage> errors = new ArrayList<FormMessage>();
+
+        context.getEvent().detail(Details.REGISTER_METHOD, "form");
+        String eventError = Errors.INVALID_REGISTRATION;
+
+        UsernameMetricsProvider metrics = UsernameMetricsProvider.of(context.getSession());
+        RealmModel realm = context.getRealm();
+        UsernamePolicy policy = getPolicy(context.getAuthenticatorConfig());
+
+        // rate limits, checked before any store or hook work
+        if (rateLimited(context, formData, policy, metrics, PROVIDER_ID)) {
+            return;
+        }
+
+        String username = formData.getFirst(RegistrationPage.FIELD_USERNAME);
+        String email = formData.getFirst(RegistrationPage.FIELD_EMAIL);
+        boolean usernameValid = !Validation.isBlank(username);
+        if (!usernameValid) {
+            errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, Messages.MISSING_USERNAME));
+        } else {
+            UsernameRuleContext ruleContext = new UsernameRuleContext(context.getSession(), realm, policy, username, email);
+            List<FormMessage> ruleErrors = getRules().check(ruleContext, policy.isShortCircuit(), metrics, PROVIDER_ID);
+            if (!ruleErrors.isEmpty()) {
+                usernameValid = false;
+                errors.addAll(ruleErrors);
+                eventError = Errors.INVALID_USER_CREDENTIALS;
+                context.getEvent().detail(Details.USERNAME, username);
+            }
+        }
+
+        if (Validation.isBlank(formData.getFirst(RegistrationPage.FIELD_FIRST_NAME))) {
+            errors.add(new FormMessage(RegistrationPage.FIELD_FIRST_NAME, Messages.MISSING_FIRST_NAME));
+        }
+
+        boolean emailValid = true;
+        if (Validation.isBlank(email)) {
+            errors.add(new FormMessage(RegistrationPage.FIELD_EMAIL, Messages.MISSING_EMAIL));
+            emailValid = false;
+        } else if (!Validation.isEmailValid(email)) {
+            context.getEvent().detail(Details.EMAIL, email);
+            errors.add(new FormMessage(RegistrationPage.FIELD_EMAIL, Messages.INVALID_EMAIL));
+            emailValid = false;
+        }
+
+        // username and email in one user store round trip; a miss in the known email filter means the email is new
+        KnownEmailFilter filter = null;
+        boolean lookupEmail = false;
+        if (emailValid && !realm.isDuplicateEmailsAllowed()) {
+            filter = policy.isKnownEmailFilter() ? KnownEmailFilter.forRealm(realm.getId(), knownEmailRebuildMillis) : null;
+            lookupEmail = filter == null || filter.mightContain(email);
+        }
+        if (usernameValid || lookupEmail) {
+            long started = System.nanoTime();
+            boolean[] exist = UserStoreQueries.usernameAndEmailExist(context.getSession(), realm,
+                    usernameValid ? username : null, lookupEmail ? email : null);
+            metrics.recordCheck(PROVIDER_ID, UsernameMetricsProvider.CHECK_USER_LOOKUP, System.nanoTime() - started);
+            if (exist[0]) {
+                usernameValid = false;
+                eventError = Errors.USERNAME_IN_USE;
+                context.getEvent().detail(Details.USERNAME, username);
+                errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, Messages.USERNAME_EXISTS));
+            }
+            if (exist[1]) {
+                if (filter != null) {
+                    filter.add(email);
+                }
+                eventError = Errors.EMAIL_IN_USE;
+                formData.remove(Validation.FIELD_EMAIL);
+                context.getEvent().detail(Details.EMAIL, email);
+                errors.add(new FormMessage(RegistrationPage.FIELD_EMAIL, Messages.EMAIL_EXISTS));
+            }
+        }
+
+        if (usernameValid && errors.isEmpty() && checkHook(context, policy, username, email, errors, metrics, PROVIDER_ID)) {
+            eventError = Errors.INVALID_USER_CREDENTIALS;
+        }
+
+        if (errors.size() > 0) {
+            for (FormMessage error : errors) {
+                metrics.recordRejection(PROVIDER_ID, error.getMessage());
+            }
+            context.error(eventError);
+            context.validationError(formData, errors);
+        } else {
+            context.success();
+        }
+    }
+
+    @Override
+    public void success(FormContext context) {
+        super.success(context);
+        RegistrationProfileFirstName.storeProfile(context);
+    }
+
+    @Override
+    public String getDisplayType() {
+        return "Profile Validation (Username and First Name)";
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        super.init(config);
+        knownEmailRebuildMillis = TimeUnit.SECONDS.toMillis(config.getLong("knownEmailRebuildInterval", 3600L));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        super.postInit(factory);
+        KnownEmailFilter.setSessionFactory(factory);
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
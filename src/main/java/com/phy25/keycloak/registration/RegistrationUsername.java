@@ -1,14 +1,10 @@
 package com.phy25.keycloak.registration;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.ws.rs.core.MultivaluedMap;
-import javax.ws.rs.core.UriBuilder;
 
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
@@ -17,11 +13,11 @@ import org.keycloak.authentication.FormActionFactory;
 import org.keycloak.authentication.FormContext;
 import org.keycloak.authentication.ValidationContext;
 import org.keycloak.authentication.forms.RegistrationPage;
-import org.keycloak.broker.provider.util.SimpleHttp;
 import org.keycloak.events.Details;
 import org.keycloak.events.Errors;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
@@ -35,10 +31,22 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
 
     private static final Logger logger = Logger.getLogger(RegistrationUsername.class);
 
+    public static final String CONFIG_PREFIX = "profile.username.";
     public static final String USERNAME_REGEX = "profile.username.regex";
+    public static final String REGEX_LINEAR = "profile.username.regex-linear";
+    public static final String REGEX_MAX_INPUT = "profile.username.regex-max-input";
 	public static final String INVALID_USERNAMES = "profile.username.invalid";
+    public static final String INVALID_USERNAMES_FILE = "profile.username.invalid-file";
+    public static final String LOOKALIKES = "profile.username.lookalikes";
     public static final String HOOK_URL = "profile.username.hook-url";
+    public static final String HOOK_TIMEOUT = "profile.username.hook-timeout";
+    public static final String HOOK_FAIL_OPEN = "profile.username.hook-fail-open";
+    public static final String SHORT_CIRCUIT = "profile.username.short-circuit";
+    public static final String SUGGESTIONS = "profile.username.suggestions";
+    public static final String AVAILABILITY = "profile.username.availability";
+    public static final String AVAILABILITY_RATE_LIMIT = "profile.username.availability-rate-limit";
     public static final String PROVIDER_ID = "registration-username-action";
+    public static final String DEFAULT_AVAILABILITY_RATE_LIMIT = "60";
     
     public String getHelpText() {
         return "Validates username. Checks if username is in the list of invalid usernames. " +
@@ -56,21 +64,116 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
         property.setHelpText("Regex pattern");
         CONFIG_PROPERTIES.add(property);
         property = new ProviderConfigProperty();
+        property.setName(REGEX_LINEAR);
+        property.setLabel("Linear-Time Username Pattern");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Match the username pattern in time proportional to the username length, whatever the pattern. "
+                + "Patterns with backreferences, lookaround, boundaries, possessive quantifiers or inline flags are not supported "
+                + "and reject every registration until the pattern is changed");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(REGEX_MAX_INPUT);
+        property.setLabel("Username Pattern Input Limit");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Usernames longer than this many characters fail the pattern check without being matched. Default " + RegexUsernameRule.DEFAULT_MAX_INPUT);
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
         property.setName(INVALID_USERNAMES);
         property.setLabel("Invalid Username");
         property.setType(ProviderConfigProperty.STRING_TYPE);
-        property.setHelpText("List of invalid usernames, separated by comma");
+        property.setHelpText("List of invalid usernames, separated by comma. Use name* to block a prefix and *name to block a suffix");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(INVALID_USERNAMES_FILE);
+        property.setLabel("Invalid Username File");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Path to a local file with one invalid username per line, in the directory set with the invalidFileDir provider option or relative to it. The file is reloaded when it changes");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(LOOKALIKES);
+        property.setLabel("Match Lookalike Characters");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Also reject invalid usernames spelled with lookalike characters, such as a Cyrillic a, accents, full width letters or 0 for o");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(SHORT_CIRCUIT);
+        property.setLabel("Stop At First Failure");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Report only the first failed username rule instead of all of them");
         CONFIG_PROPERTIES.add(property);
         property = new ProviderConfigProperty();
         property.setName(HOOK_URL);
-        property.setLabel("Hook GET URL");
+        property.setLabel("Hook URL");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("GET ?username=[username]&email=[email], or the URL to POST to in json mode");
+        CONFIG_PROPERTIES.add(property);
+        UsernameHook.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        property = new ProviderConfigProperty();
+        property.setName(HOOK_TIMEOUT);
+        property.setLabel("Hook Timeout");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Milliseconds to wait for the hook before applying the failure policy. Empty waits without deadline");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(HOOK_FAIL_OPEN);
+        property.setLabel("Allow On Hook Failure");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Accept the username when the hook fails or times out, instead of rejecting the registration");
+        CONFIG_PROPERTIES.add(property);
+        HookVerdictCache.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        HookCircuitBreaker.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        RequestRateLimiter.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        property = new ProviderConfigProperty();
+        property.setName(SUGGESTIONS);
+        property.setLabel("Username Suggestions");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Number of available alternatives offered by the registration-username suggestions endpoint for a taken username. Empty or 0 disables the endpoint");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(AVAILABILITY);
+        property.setLabel("Live Availability Check");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setHelpText("Let the registration page check the username while it is typed, through the registration-username availability endpoint");
+        CONFIG_PROPERTIES.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(AVAILABILITY_RATE_LIMIT);
+        property.setLabel("Username Lookups per Session");
         property.setType(ProviderConfigProperty.STRING_TYPE);
-        property.setHelpText("?username=[username]&email=[email]");
+        property.setHelpText("Availability checks and suggestion requests per minute allowed for one browser session, and again for one client IP. Default " + DEFAULT_AVAILABILITY_RATE_LIMIT + ", 0 disables the limit");
         CONFIG_PROPERTIES.add(property);
     }
 
     public List<ProviderConfigProperty> getConfigProperties() {
-    	return CONFIG_PROPERTIES;
+    	return configProperties;
+    }
+
+    private HookHttpClient hookClient;
+    private long clusterCacheSize;
+    private UsernameWarmUp warmUp;
+    private volatile UsernameRulePipeline rules = UsernameRulePipeline.builtIn();
+    private volatile List<ProviderConfigProperty> configProperties = withRuleProperties(rules);
+    private final CompiledConfigs<UsernamePolicy> policies = new CompiledConfigs<UsernamePolicy>(
+            (configId, config) -> UsernamePolicy.compile(configId, config, rules));
+
+    private static List<ProviderConfigProperty> withRuleProperties(UsernameRulePipeline rules) {
+        List<ProviderConfigProperty> properties = new ArrayList<ProviderConfigProperty>(CONFIG_PROPERTIES);
+        properties.addAll(rules.getConfigProperties());
+        return properties;
+    }
+
+    UsernameRulePipeline getRules() {
+        return rules;
+    }
+
+    HookHttpClient getHookClient() {
+        return hookClient;
+    }
+
+    /**
+     * The execution config compiled for this deployment's rules.
+     */
+    UsernamePolicy getPolicy(AuthenticatorConfigModel configModel) {
+        return policies.get(configModel);
     }
 
     public void validate(ValidationContext context) {
@@ -80,57 +183,36 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
         context.getEvent().detail(Details.REGISTER_METHOD, "form");
         String eventError = Errors.INVALID_REGISTRATION;
         
+        UsernameMetricsProvider metrics = UsernameMetricsProvider.of(context.getSession());
         String username = formData.getFirst(RegistrationPage.FIELD_USERNAME);
         if(Validation.isBlank(username)){
         	errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, Messages.MISSING_USERNAME));
         }else{
-        	Map<String, String> usernameConfig = context.getAuthenticatorConfig().getConfig();
-        	String invalidUsernameString = usernameConfig.get(INVALID_USERNAMES);
-        	if (invalidUsernameString != null){
-            	List<String> invalidUsernames = Arrays.asList(invalidUsernameString.toLowerCase().split(","));
-        	
-                if(invalidUsernames.contains(username.toLowerCase())){
-                    eventError = Errors.INVALID_USER_CREDENTIALS;
-                    context.getEvent().detail(Details.USERNAME, username);
-                    errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.USER_NAME_NOT_AVAILABLE));
-                }
-        	}
-
-            String usernameRegex = usernameConfig.get(USERNAME_REGEX);
-			Pattern pattern = Pattern.compile(usernameRegex);
-			Matcher matcher = pattern.matcher(username);
-	        if(!matcher.matches()){
-	        	eventError = Errors.INVALID_USER_CREDENTIALS;
-	     	    context.getEvent().detail(Details.USERNAME, username);
-	            errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.INVALID_USER_NAME_CHARACTERS));
-	        }
-
-            // hook check
-            String baseUrl = usernameConfig.get(HOOK_URL);
-            if (baseUrl != null && !("".equals(baseUrl))) {
-                String email = formData.getFirst(RegistrationPage.FIELD_EMAIL);
-                UriBuilder urlBuild = UriBuilder.fromUri(baseUrl)
-                        .queryParam("username", username)
-                        .queryParam("email", email);
-                String url = urlBuild.build().toString();
-                try {
-                    String resp = SimpleHttp.doGet(url, context.getSession()).asString();
-                    if ("yes".equals(resp)) {
-                        logger.warn("Matched hook request: " + url);
-                        eventError = Errors.INVALID_USER_CREDENTIALS;
-                        context.getEvent().detail(Details.USERNAME, username);
-                        errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.REGISTRATION_PREVENTED_EXTERNAL));
-                    }
-                } catch (Exception e) {
-                    logger.warn("Failed hook request: " + url, e);
-                    eventError = Errors.INVALID_USER_CREDENTIALS;
-                    context.getEvent().detail(Details.USERNAME, username);
-                    errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.REGISTRATION_PREVENTED_EXTERNAL));
-                }
+        	UsernamePolicy policy = policies.get(context.getAuthenticatorConfig());
+
+            // rate limits, checked before any store or hook work
+            if (rateLimited(context, formData, policy, metrics, PROVIDER_ID)) {
+                return;
+            }
+
+            // local rules first, the hook only sees usernames that pass them
+            String email = formData.getFirst(RegistrationPage.FIELD_EMAIL);
+            UsernameRuleContext ruleContext = new UsernameRuleContext(context.getSession(), context.getRealm(), policy, username, email);
+            errors.addAll(rules.check(ruleContext, policy.isShortCircuit(), metrics, PROVIDER_ID));
+            if (!errors.isEmpty()) {
+                eventError = Errors.INVALID_USER_CREDENTIALS;
+                context.getEvent().detail(Details.USERNAME, username);
+            }
+
+            if (errors.isEmpty() && checkHook(context, policy, username, email, errors, metrics, PROVIDER_ID)) {
+                eventError = Errors.INVALID_USER_CREDENTIALS;
             }
         }
         
         if (errors.size() > 0) {
+            for (FormMessage error : errors) {
+                metrics.recordRejection(PROVIDER_ID, error.getMessage());
+            }
             context.error(eventError);
             context.validationError(formData, errors);
             return;
@@ -140,8 +222,60 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
         }
     }
 
+    /**
+     * Takes a token from the rate limits for the client IP, username and email. When
+     * a limit is hit the validation fails with its message and true is returned.
+     */
+    static boolean rateLimited(ValidationContext context, MultivaluedMap<String, String> formData, UsernamePolicy policy,
+                               UsernameMetricsProvider metrics, String action) {
+        RequestRateLimiter rateLimiter = policy.getRateLimiter();
+        String username = formData.getFirst(RegistrationPage.FIELD_USERNAME);
+        String limited = rateLimiter == null ? null : rateLimiter.acquire(context.getConnection().getRemoteAddr(),
+                username, formData.getFirst(RegistrationPage.FIELD_EMAIL));
+        if (limited == null) {
+            return false;
+        }
+        metrics.recordRejection(action, rateLimiter.getMessage());
+        context.getEvent().detail(Details.USERNAME, username)
+                .detail(RegistrationUsernameConstants.DETAIL_RATE_LIMIT, limited);
+        context.error(RegistrationUsernameConstants.RATE_LIMITED);
+        context.validationError(formData, Collections.singletonList(
+                new FormMessage(RegistrationPage.FIELD_USERNAME, rateLimiter.getMessage())));
+        return true;
+    }
+
+    /**
+     * Asks the hook, when one is configured, and adds an error when it rejects the
+     * username. Returns true when it did.
+     */
+    boolean checkHook(ValidationContext context, UsernamePolicy policy, String username,
+                      String email, List<FormMessage> errors, UsernameMetricsProvider metrics, String action) {
+        HookSettings hook = policy.getHook();
+        if (hook == null) {
+            return false;
+        }
+        long hookStarted = System.nanoTime();
+        HookRequest hookRequest = HookRequest.registration(hook.getUrl(), username, email);
+        HookVerdict verdict = UsernameHook.start(hookClient.get(), hookRequest, hook.isJson(),
+                hook.getTimeoutMillis(), hook.getCache(), hook.getBreaker()).await();
+        long hookTime = System.nanoTime() - hookStarted;
+        metrics.recordCheck(action, UsernameMetricsProvider.CHECK_HOOK, hookTime);
+        metrics.recordHook(action, verdict.getResult(), hookTime);
+        HookAuditLog.record(action, context.getRealm().getName(), HookRequest.CONTEXT_REGISTRATION, username, verdict, hookTime);
+        if (!verdict.rejects(hook.isFailOpen())) {
+            return false;
+        }
+        context.getEvent().detail(Details.USERNAME, username);
+        if (verdict.getReason() != null) {
+            context.getEvent().detail(RegistrationUsernameConstants.DETAIL_HOOK_REASON, verdict.getReason());
+        }
+        errors.add(new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.REGISTRATION_PREVENTED_EXTERNAL));
+        return true;
+    }
+
     public void success(FormContext context) {
-        // complete
+        String username = context.getHttpRequest().getDecodedFormParameters().getFirst(RegistrationPage.FIELD_USERNAME);
+        UnknownUserCache.invalidate(context.getRealm().getId(), username);
     }
 
     public void buildPage(FormContext context, LoginFormsProvider form) {
@@ -165,7 +299,13 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
     }
 
     public void close() {
-
+        if (hookClient != null) {
+            hookClient.close();
+            hookClient = null;
+        }
+        UsernameClusterCache.close();
+        HookAuditLog.close();
+        ReservedUsernameFile.close();
     }
 
     public String getDisplayType() {
@@ -194,11 +334,27 @@ public class RegistrationUsername implements FormAction, FormActionFactory {
     }
 
     public void init(Config.Scope config) {
-    	
+        ReservedUsernameFile.start(config);
+        UsernameHook.setMaxThreads(config.getInt("hookThreads", 64));
+        hookClient = HookHttpClient.create(config);
+        clusterCacheSize = config.getLong("clusterCacheSize", UsernameClusterCache.DEFAULT_SIZE);
+        HookAuditLog.start(config);
+        warmUp = UsernameWarmUp.create(config);
     }
 
     public void postInit(KeycloakSessionFactory factory) {
-
+        rules = UsernameRulePipeline.load(factory);
+        configProperties = withRuleProperties(rules);
+        // compiled for the built-in rules until now
+        policies.clear();
+        UsernameClusterCache.init(factory, clusterCacheSize);
+        warmUp.onStartup(factory, getId(), (session, realm) -> {
+            for (AuthenticatorConfigModel config : ExecutionConfigs.findAll(realm, getId())) {
+                UsernamePolicy policy = policies.get(config);
+                warmUp.checkRules(session, realm, policy, rules);
+                warmUp.prepareHook(hookClient, policy.getHook());
+            }
+        });
     }
 
     public String getId() {
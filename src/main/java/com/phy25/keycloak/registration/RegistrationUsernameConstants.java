@@ -4,6 +4,13 @@ public class RegistrationUsernameConstants {
 
 	public static final String USER_NAME_NOT_AVAILABLE = "usernameNotAvailable";
 	public static final String INVALID_USER_NAME_CHARACTERS = "invalidUsernameCharacters";
+	public static final String USER_NAME_TOO_SHORT = "usernameTooShort";
+	public static final String USER_NAME_TOO_LONG = "usernameTooLong";
+	public static final String USER_NAME_PATTERN_INVALID = "usernamePatternInvalid";
 	public static final String RESET_PASSWORD_PREVENTED_EXTERNAL = "ResetPasswordPreventedExternallyMessage";
 	public static final String REGISTRATION_PREVENTED_EXTERNAL = "RegistrationPreventedExternallyMessage";
+	public static final String TOO_MANY_ATTEMPTS = "usernameTooManyAttempts";
+	public static final String RATE_LIMITED = "rate_limited";
+	public static final String DETAIL_HOOK_REASON = "hook_reason";
+	public static final String DETAIL_RATE_LIMIT = "rate_limit";
 }
@@ -0,0 +1,197 @@
+package com.phy25.keycloak.registration;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jboss.logging.Logger;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Token bucket rate limits per client IP and per username or email, checked
+ * before any user store or hook work. Each limit is a fixed table of lock-free
+ * cells (GCRA, a token bucket kept as a single timestamp); a key maps to two
+ * cells and is only limited when both are, so keys sharing a cell rarely slow
+ * each other down and memory stays flat no matter how many keys are seen.
+ */
+public class RequestRateLimiter {
+
+    private static final Logger logger = Logger.getLogger(RequestRateLimiter.class);
+
+    public static final String IP_LIMIT = "rate-limit-ip";
+    public static final String IDENTIFIER_LIMIT = "rate-limit-identifier";
+    public static final String MESSAGE = "rate-limit-message";
+
+    public static final String LIMITED_IP = "ip";
+    public static final String LIMITED_IDENTIFIER = "identifier";
+
+    private static final int CELLS = 1 << 16;
+
+    private static final ConfigCache<RequestRateLimiter> LIMITERS = new ConfigCache<RequestRateLimiter>();
+    private static final ConfigCache<RequestRateLimiter> SESSION_LIMITERS = new ConfigCache<RequestRateLimiter>();
+
+    private final Limit ipLimit;
+    private final Limit identifierLimit;
+    private final String message;
+
+    private RequestRateLimiter(int ipPerMinute, int identifierPerMinute, String message) {
+        this.ipLimit = ipPerMinute > 0 ? new Limit(ipPerMinute) : null;
+        this.identifierLimit = identifierPerMinute > 0 ? new Limit(identifierPerMinute) : null;
+        this.message = message;
+    }
+
+    public static void addConfigProperties(List<ProviderConfigProperty> properties, String prefix) {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(prefix + IP_LIMIT);
+        property.setLabel("Rate Limit per IP");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Attempts per minute allowed from one client IP, as a burst or spread out. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + IDENTIFIER_LIMIT);
+        property.setLabel("Rate Limit per Username");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Attempts per minute allowed for one username or email. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + MESSAGE);
+        property.setLabel("Rate Limit Message");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Message key or text shown when a rate limit is hit. Default " + RegistrationUsernameConstants.TOO_MANY_ATTEMPTS);
+        properties.add(property);
+    }
+
+    /**
+     * Returns the limiter for an execution config, or null when no limit is set.
+     */
+    public static RequestRateLimiter forConfig(String configId, Map<String, String> config, String prefix) {
+        String source = config.get(prefix + IP_LIMIT) + "|" + config.get(prefix + IDENTIFIER_LIMIT) + "|" + config.get(prefix + MESSAGE);
+        return LIMITERS.get(configId, source, s -> {
+            int ipPerMinute = number(config.get(prefix + IP_LIMIT));
+            int identifierPerMinute = number(config.get(prefix + IDENTIFIER_LIMIT));
+            if (ipPerMinute == 0 && identifierPerMinute == 0) {
+                return null;
+            }
+            String message = config.get(prefix + MESSAGE);
+            if (message == null || message.trim().isEmpty()) {
+                message = RegistrationUsernameConstants.TOO_MANY_ATTEMPTS;
+            }
+            return new RequestRateLimiter(ipPerMinute, identifierPerMinute, message);
+        });
+    }
+
+    /**
+     * Returns a limiter allowing the same number of calls per minute per client IP
+     * and per browser session, or null when the limit is not positive. The session
+     * ID takes the place of the identifier in {@link #acquire(String, String...)},
+     * so a client cannot get past the limit by starting new sessions.
+     */
+    public static RequestRateLimiter forSession(String configId, String perMinute) {
+        return SESSION_LIMITERS.get(configId, perMinute, s -> {
+            int sessionPerMinute = number(perMinute);
+            return sessionPerMinute == 0 ? null
+                    : new RequestRateLimiter(sessionPerMinute, sessionPerMinute, RegistrationUsernameConstants.TOO_MANY_ATTEMPTS);
+        });
+    }
+
+    private static int number(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid rate limit '%s', limit disabled", value);
+            return 0;
+        }
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Takes a token for the client IP and each identifier. Returns null when the
+     * attempt is allowed, otherwise {@link #LIMITED_IP} or {@link #LIMITED_IDENTIFIER}.
+     * Null identifiers are skipped; identifiers are compared case-insensitively.
+     */
+    public String acquire(String clientIp, String... identifiers) {
+        return acquire(System.nanoTime(), clientIp, identifiers);
+    }
+
+    /**
+     * {@link #acquire(String, String...)} at the given {@link System#nanoTime()}.
+     */
+    String acquire(long now, String clientIp, String... identifiers) {
+        if (ipLimit != null && clientIp != null && !ipLimit.acquire(clientIp, now)) {
+            return LIMITED_IP;
+        }
+        if (identifierLimit != null) {
+            for (String identifier : identifiers) {
+                if (identifier != null && !identifierLimit.acquire(identifier.trim().toLowerCase(Locale.ROOT), now)) {
+                    return LIMITED_IDENTIFIER;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class Limit {
+        final long interval;
+        final long tolerance;
+        final AtomicLongArray cells = new AtomicLongArray(CELLS);
+
+        Limit(int perMinute) {
+            interval = TimeUnit.MINUTES.toNanos(1) / perMinute;
+            tolerance = interval * (perMinute - 1);
+        }
+
+        boolean acquire(String key, long now) {
+            int hash = key.hashCode();
+            hash = (hash ^ (hash >>> 16)) * 0x85EBCA6B;
+            hash = (hash ^ (hash >>> 13)) * 0xC2B2AE35;
+            hash ^= hash >>> 16;
+            int first = hash & (CELLS - 1);
+            int second = hash >>> 16;
+            while (true) {
+                long a = cells.get(first);
+                long b = cells.get(second);
+                long arrival = earlier(a, b);
+                if (arrival != 0 && now - (arrival - tolerance) < 0) {
+                    return false;
+                }
+                long next = (arrival == 0 || now - arrival > 0 ? now : arrival) + interval;
+                // the token is taken by moving the cell that decided; losing the race means another call took one, so check again
+                boolean firstDecided = a == 0 || (b != 0 && a - b <= 0);
+                int decided = firstDecided ? first : second;
+                int other = firstDecided ? second : first;
+                long seen = firstDecided ? a : b;
+                // the other cell goes first, so a concurrent call never sees it behind and decides on it instead;
+                // conservative update: a cell already ahead because of another key is left alone
+                if (other != decided) {
+                    raise(other, next);
+                }
+                if (cells.compareAndSet(decided, seen, next)) {
+                    return true;
+                }
+            }
+        }
+
+        private static long earlier(long a, long b) {
+            if (a == 0 || b == 0) {
+                return 0;
+            }
+            return a - b < 0 ? a : b;
+        }
+
+        private void raise(int cell, long next) {
+            long current = cells.get(cell);
+            while ((current == 0 || next - current > 0) && !cells.compareAndSet(cell, current, next)) {
+                current = cells.get(cell);
+            }
+        }
+    }
+}
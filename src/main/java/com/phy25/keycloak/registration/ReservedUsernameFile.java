@@ -0,0 +1,376 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+
+/**
+ * Reserved usernames read from a local file, one name per line. Each load copies
+ * the file to a private temporary file and memory-maps the copy, so only a sorted
+ * array of line offsets is kept on the heap and rewriting the original cannot
+ * change a snapshot that is in use. A background task loads the file and reloads
+ * it when its modification time changes; lookups always read the last fully
+ * loaded snapshot and only wait for the first load. Replace the file by renaming
+ * a complete new file over it, as a reload during an in-place rewrite copies the
+ * part written so far. A file that is not used for an hour is no longer polled;
+ * its next lookup is still answered from the old snapshot while a reload runs in
+ * the background. Only files under the directory set with the provider option
+ * invalidFileDir are read. Lines are compared case-insensitively for ASCII, other
+ * characters must be stored lowercase. Empty lines and lines starting with # are
+ * ignored.
+ */
+public class ReservedUsernameFile {
+
+    private static final Logger logger = Logger.getLogger(ReservedUsernameFile.class);
+
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final ConcurrentMap<String, ReservedUsernameFile> FILES = new ConcurrentHashMap<String, ReservedUsernameFile>();
+
+    private static volatile long checkIntervalSeconds = 30;
+    private static volatile Path directory;
+    private static ScheduledExecutorService reloader;
+    private static Path copies;
+    private static int users;
+
+    private final Path path;
+    private final CompletableFuture<Void> loaded = new CompletableFuture<Void>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile long lastAccess = System.currentTimeMillis();
+    // null while the file is idle and not polled
+    private volatile ScheduledFuture<?> reloadTask;
+
+    private ReservedUsernameFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Applies the provider options invalidFileDir (the directory invalid username
+     * files must be in; none are read when empty) and invalidFileCheckInterval
+     * (seconds between checks for changes, default 30). Every factory calling this
+     * calls {@link #close()} once.
+     */
+    public static synchronized void start(Config.Scope config) {
+        users++;
+        checkIntervalSeconds = Math.max(1, config.getLong("invalidFileCheckInterval", 30L));
+        String dir = config.get("invalidFileDir");
+        if (dir != null && !dir.trim().isEmpty()) {
+            directory = Paths.get(dir.trim()).toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Stops the reloader and forgets all files once every factory that called
+     * {@link #start(Config.Scope)} has closed.
+     */
+    public static synchronized void close() {
+        if (users > 0 && --users > 0) {
+            return;
+        }
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
+        }
+        for (ReservedUsernameFile file : FILES.values()) {
+            // a first load cancelled by the shutdown leaves the list empty
+            file.loaded.complete(null);
+        }
+        FILES.clear();
+    }
+
+    static void setDirectory(Path dir) {
+        directory = dir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * The file at the path, relative to invalidFileDir unless absolute, or null
+     * when it is not inside that directory.
+     */
+    public static ReservedUsernameFile forPath(String path) {
+        Path dir = directory;
+        if (dir == null) {
+            logger.errorf("Invalid username file %s ignored, the invalidFileDir provider option is not set", path);
+            return null;
+        }
+        Path file = dir.resolve(path.trim()).normalize();
+        if (!file.startsWith(dir) || file.equals(dir)) {
+            logger.errorf("Invalid username file %s ignored, it is not in %s", path, dir);
+            return null;
+        }
+        return FILES.computeIfAbsent(file.toString(), p -> {
+            ReservedUsernameFile reserved = new ReservedUsernameFile(file);
+            reserved.start();
+            return reserved;
+        });
+    }
+
+    public boolean contains(String username) {
+        lastAccess = System.currentTimeMillis();
+        if (reloadTask == null) {
+            resume();
+        }
+        if (username == null) {
+            return false;
+        }
+        return awaitLoaded().contains(username.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int size() {
+        return awaitLoaded().offsets.length;
+    }
+
+    private Snapshot awaitLoaded() {
+        // only the first lookup of a new file can find the load still running
+        loaded.join();
+        return snapshot;
+    }
+
+    private synchronized void start() {
+        reloader().execute(() -> {
+            try {
+                snapshot = load(path, Snapshot.EMPTY);
+            } finally {
+                loaded.complete(null);
+            }
+        });
+        poll(checkIntervalSeconds);
+    }
+
+    private synchronized void poll(long initialDelaySeconds) {
+        reloadTask = reloader().scheduleWithFixedDelay(this::checkForChanges, initialDelaySeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Polls an idle file again, checking it for changes right away.
+     */
+    private synchronized void resume() {
+        if (reloadTask == null) {
+            poll(0);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService reloader() {
+        if (reloader == null) {
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "reserved-username-file-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reloader;
+    }
+
+    private void checkForChanges() {
+        if (System.currentTimeMillis() - lastAccess > IDLE_TIMEOUT_MILLIS) {
+            synchronized (this) {
+                if (reloadTask != null) {
+                    reloadTask.cancel(false);
+                    reloadTask = null;
+                }
+            }
+            return;
+        }
+        Snapshot current = snapshot;
+        if (lastModified(path) != current.lastModified) {
+            snapshot = load(path, current);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Snapshot load(Path path, Snapshot previous) {
+        long lastModified = lastModified(path);
+        Path copy = null;
+        try {
+            Path dir = directory;
+            // the configured path may be a link out of the directory
+            if (dir == null || !path.toRealPath().startsWith(dir.toRealPath())) {
+                logger.errorf("Reserved username file %s is not in %s, keeping previous list", path, dir);
+                return previous.withLastModified(lastModified);
+            }
+            if (Files.size(path) > Integer.MAX_VALUE) {
+                logger.errorf("Reserved username file %s is larger than 2GB, keeping previous list", path);
+                return previous;
+            }
+            copy = Files.createTempFile(copies(), "reserved-usernames", ".txt");
+            Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            Snapshot loaded = Snapshot.index(buffer, lastModified);
+            logger.infof("Loaded %d reserved usernames from %s", loaded.offsets.length, path);
+            return loaded;
+        } catch (NoSuchFileException e) {
+            logger.errorf("Reserved username file %s does not exist", path);
+        } catch (IOException e) {
+            logger.errorf(e, "Failed to load reserved username file %s, keeping previous list", path);
+        } finally {
+            if (copy != null) {
+                deleteCopy(copy);
+            }
+        }
+        return previous.withLastModified(lastModified);
+    }
+
+    /**
+     * The private directory the copies are mapped from.
+     */
+    private static synchronized Path copies() throws IOException {
+        if (copies == null || !Files.isDirectory(copies)) {
+            copies = Files.createTempDirectory("reserved-usernames");
+            copies.toFile().deleteOnExit();
+        }
+        return copies;
+    }
+
+    private static void deleteCopy(Path copy) {
+        // the mapping stays readable after the copy is unlinked, except on Windows
+        try {
+            Files.delete(copy);
+        } catch (IOException e) {
+            copy.toFile().deleteOnExit();
+        }
+    }
+
+    private static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, new int[0], new int[0], 0);
+
+        final MappedByteBuffer buffer;
+        final int[] offsets;
+        final int[] lengths;
+        final long lastModified;
+
+        Snapshot(MappedByteBuffer buffer, int[] offsets, int[] lengths, long lastModified) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.lastModified = lastModified;
+        }
+
+        Snapshot withLastModified(long lastModified) {
+            return new Snapshot(buffer, offsets, lengths, lastModified);
+        }
+
+        static Snapshot index(MappedByteBuffer buffer, long lastModified) {
+            int limit = buffer.limit();
+            int count = 0;
+            long[] lines = new long[1024];
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buffer.get(end) != '\n') {
+                    end++;
+                }
+                int from = start;
+                int to = end;
+                while (from < to && isWhitespace(buffer.get(from))) {
+                    from++;
+                }
+                while (to > from && isWhitespace(buffer.get(to - 1))) {
+                    to--;
+                }
+                if (to > from && buffer.get(from) != '#') {
+                    if (count == lines.length) {
+                        lines = Arrays.copyOf(lines, count * 2);
+                    }
+                    lines[count++] = ((long) from << 32) | (to - from);
+                }
+                start = end + 1;
+            }
+
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            final long[] entries = lines;
+            Arrays.sort(order, Comparator.comparing(i -> entries[i], (a, b) -> compareEntries(buffer, a, b)));
+
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                long entry = entries[order[i]];
+                offsets[i] = (int) (entry >>> 32);
+                lengths[i] = (int) entry;
+            }
+            return new Snapshot(buffer, offsets, lengths, lastModified);
+        }
+
+        boolean contains(byte[] candidate) {
+            int low = 0;
+            int high = offsets.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(buffer, offsets[mid], lengths[mid], candidate);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+
+        private static int fold(byte b) {
+            return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+        }
+
+        private static int compareEntries(MappedByteBuffer buffer, long a, long b) {
+            int aOffset = (int) (a >>> 32);
+            int aLength = (int) a;
+            int bOffset = (int) (b >>> 32);
+            int bLength = (int) b;
+            int n = Math.min(aLength, bLength);
+            for (int i = 0; i < n; i++) {
+                int cmp = fold(buffer.get(aOffset + i)) - fold(buffer.get(bOffset + i));
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return aLength - bLength;
+        }
+
+        private static int compare(MappedByteBuffer buffer, int offset, int length, byte[] candidate) {
+            int n = Math.min(length, candidate.length);
+            for (int i = 0; i < n; i++) {
+                int cmp = fold(buffer.get(offset + i)) - (candidate[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - candidate.length;
+        }
+    }
+}
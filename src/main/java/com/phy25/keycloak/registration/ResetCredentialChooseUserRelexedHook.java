@@ -11,7 +11,6 @@ import org.keycloak.authentication.authenticators.broker.AbstractIdpAuthenticato
 import org.keycloak.authentication.authenticators.browser.AbstractUsernameFormAuthenticator;
 import org.keycloak.authentication.authenticators.resetcred.ResetCredentialChooseUser;
 import org.keycloak.authentication.forms.RegistrationPage;
-import org.keycloak.broker.provider.util.SimpleHttp;
 import org.keycloak.events.Details;
 import org.keycloak.events.Errors;
 import org.keycloak.events.EventBuilder;
@@ -23,19 +22,23 @@ import org.keycloak.services.messages.Messages;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.UriBuilder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class ResetCredentialChooseUserRelexedHook implements Authenticator, AuthenticatorFactory {
 
     private static final Logger logger = Logger.getLogger(ResetCredentialChooseUserRelexedHook.class);
 
+    public static final String CONFIG_PREFIX = "resetcred.choose.";
     public static final String ENABLE_INVALID_PROMPT = "resetcred.choose.prompt";
     public static final String HOOK_URL = "resetcred.choose.hook-url";
     public static final String PROVIDER_ID = "phy25-reset-creds-choose-rh";
 
+    private HookHttpClient hookClient;
+    private long clusterCacheSize;
+    private UsernameWarmUp warmUp;
+    private final CompiledConfigs<ResetCredentialPolicy> policies = new CompiledConfigs<ResetCredentialPolicy>(ResetCredentialPolicy::compile);
+
     private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = new ArrayList<ProviderConfigProperty>();
 
     static {
@@ -48,10 +51,15 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
         CONFIG_PROPERTIES.add(property);
         property = new ProviderConfigProperty();
         property.setName(HOOK_URL);
-        property.setLabel("Hook GET URL");
+        property.setLabel("Hook URL");
         property.setType(ProviderConfigProperty.STRING_TYPE);
-        property.setHelpText("?username=[username/email]");
+        property.setHelpText("GET ?username=[username/email], or the URL to POST to in json mode");
         CONFIG_PROPERTIES.add(property);
+        UsernameHook.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        HookVerdictCache.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        HookCircuitBreaker.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        UnknownUserCache.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
+        RequestRateLimiter.addConfigProperties(CONFIG_PROPERTIES, CONFIG_PREFIX);
     }
 
     @Override
@@ -99,16 +107,42 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
 
         username = username.trim();
 
+        UsernameMetricsProvider metrics = UsernameMetricsProvider.of(context.getSession());
         RealmModel realm = context.getRealm();
-        UserModel user = context.getSession().users().getUserByUsername(username, realm);
-        if (user == null && realm.isLoginWithEmailAllowed() && username.contains("@")) {
-            user =  context.getSession().users().getUserByEmail(username, realm);
+        ResetCredentialPolicy policy = policies.get(context.getAuthenticatorConfig());
+
+        // rate limits, checked before any store or hook work
+        RequestRateLimiter rateLimiter = policy.getRateLimiter();
+        String limited = rateLimiter == null ? null : rateLimiter.acquire(context.getConnection().getRemoteAddr(), username);
+        if (limited != null) {
+            metrics.recordRejection(PROVIDER_ID, rateLimiter.getMessage());
+            event.clone()
+                    .detail(Details.USERNAME, username)
+                    .detail(RegistrationUsernameConstants.DETAIL_RATE_LIMIT, limited)
+                    .error(RegistrationUsernameConstants.RATE_LIMITED);
+            Response challenge = context.form()
+                    .setError(rateLimiter.getMessage())
+                    .createPasswordReset();
+            context.forceChallenge(challenge);
+            return;
         }
 
-        context.getAuthenticationSession().setAuthNote(AbstractUsernameFormAuthenticator.ATTEMPTED_USERNAME, username);
+        UnknownUserCache unknownUsers = policy.getUnknownUsers();
+        UserModel user = null;
+        if (unknownUsers == null || !unknownUsers.isUnknown(realm.getId(), username)) {
+            long cacheVersion = UnknownUserCache.version();
+            long started = System.nanoTime();
+            user = context.getSession().users().getUserByUsername(username, realm);
+            if (user == null && realm.isLoginWithEmailAllowed() && username.contains("@")) {
+                user =  context.getSession().users().getUserByEmail(username, realm);
+            }
+            metrics.recordCheck(PROVIDER_ID, UsernameMetricsProvider.CHECK_USER_LOOKUP, System.nanoTime() - started);
+            if (user == null && unknownUsers != null) {
+                unknownUsers.putUnknown(realm.getId(), username, cacheVersion);
+            }
+        }
 
-        Map<String, String> usernameConfig = context.getAuthenticatorConfig().getConfig();
-        String enablePrompt = usernameConfig.get(ENABLE_INVALID_PROMPT);
+        context.getAuthenticationSession().setAuthNote(AbstractUsernameFormAuthenticator.ATTEMPTED_USERNAME, username);
 
         // we would prompt users here
         if (user == null) {
@@ -117,25 +151,26 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
                     .error(Errors.USER_NOT_FOUND);
 
             // hook check
-            String baseUrl = usernameConfig.get(HOOK_URL);
-            if (baseUrl != null && !("".equals(baseUrl))) {
-                UriBuilder urlBuild = UriBuilder.fromUri(baseUrl)
-                        .queryParam("username", username);
-                String url = urlBuild.build().toString();
-                try {
-                    String resp = SimpleHttp.doGet(url, context.getSession()).asString();
-                    if ("yes".equals(resp)) {
-                        logger.warn("Matched hook request: " + url);
-                        eventError = RegistrationUsernameConstants.RESET_PASSWORD_PREVENTED_EXTERNAL;
+            HookSettings hook = policy.getHook();
+            if (hook != null) {
+                HookRequest hookRequest = HookRequest.resetCredentials(hook.getUrl(), username);
+                long started = System.nanoTime();
+                HookVerdict verdict = UsernameHook.start(hookClient.get(), hookRequest, hook.isJson(),
+                        hook.getTimeoutMillis(), hook.getCache(), hook.getBreaker()).await();
+                long hookTime = System.nanoTime() - started;
+                metrics.recordCheck(PROVIDER_ID, UsernameMetricsProvider.CHECK_HOOK, hookTime);
+                metrics.recordHook(PROVIDER_ID, verdict.getResult(), hookTime);
+                HookAuditLog.record(PROVIDER_ID, context.getRealm().getName(), HookRequest.CONTEXT_RESET_CREDENTIALS, username, verdict, hookTime);
+                if (verdict.rejects(hook.isFailOpen())) {
+                    if (verdict.getReason() != null) {
+                        event.detail(RegistrationUsernameConstants.DETAIL_HOOK_REASON, verdict.getReason());
                     }
-                } catch (Exception e) {
-                    logger.warn("Failed hook request: " + url, e);
                     eventError = RegistrationUsernameConstants.RESET_PASSWORD_PREVENTED_EXTERNAL;
                 }
             }
 
             context.clearUser();
-            if ("true".equals(enablePrompt) && eventError == null) {
+            if (policy.isPrompt() && eventError == null) {
                 eventError = Messages.INVALID_USER;
             }
         } else if (!user.isEnabled()) {
@@ -143,7 +178,7 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
                     .detail(Details.USERNAME, username)
                     .user(user).error(Errors.USER_DISABLED);
             context.clearUser();
-            if ("true".equals(enablePrompt)) {
+            if (policy.isPrompt()) {
                 eventError = Messages.ACCOUNT_DISABLED;
             }
         } else {
@@ -151,6 +186,7 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
         }
 
         if (eventError != null) {
+            metrics.recordRejection(PROVIDER_ID, eventError);
             LoginFormsProvider challengeForm = context.form();
             challengeForm.setError(eventError);
             context.forceChallenge(challengeForm.createPasswordReset());
@@ -216,7 +252,12 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
 
     @Override
     public void close() {
-
+        if (hookClient != null) {
+            hookClient.close();
+            hookClient = null;
+        }
+        UsernameClusterCache.close();
+        HookAuditLog.close();
     }
 
     @Override
@@ -226,12 +267,20 @@ public class ResetCredentialChooseUserRelexedHook implements Authenticator, Auth
 
     @Override
     public void init(Config.Scope config) {
-
+        hookClient = HookHttpClient.create(config);
+        clusterCacheSize = config.getLong("clusterCacheSize", UsernameClusterCache.DEFAULT_SIZE);
+        HookAuditLog.start(config);
+        warmUp = UsernameWarmUp.create(config);
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-
+        UsernameClusterCache.init(factory, clusterCacheSize);
+        warmUp.onStartup(factory, PROVIDER_ID, (session, realm) -> {
+            for (AuthenticatorConfigModel config : ExecutionConfigs.findAll(realm, PROVIDER_ID)) {
+                warmUp.prepareHook(hookClient, policies.get(config).getHook());
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,56 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+/**
+ * A reset credentials execution config, compiled once per config version through
+ * {@link CompiledConfigs}: the invalid user prompt switch, rate limits, unknown
+ * user cache and hook. Not changed after it is built.
+ */
+public class ResetCredentialPolicy {
+
+    private final boolean prompt;
+    private final RequestRateLimiter rateLimiter;
+    private final UnknownUserCache unknownUsers;
+    private final HookSettings hook;
+
+    private ResetCredentialPolicy(String configId, Map<String, String> config) {
+        this.prompt = "true".equals(config.get(ResetCredentialChooseUserRelexedHook.ENABLE_INVALID_PROMPT));
+        this.rateLimiter = RequestRateLimiter.forConfig(configId, config, ResetCredentialChooseUserRelexedHook.CONFIG_PREFIX);
+        this.unknownUsers = UnknownUserCache.forConfig(configId, config, ResetCredentialChooseUserRelexedHook.CONFIG_PREFIX);
+        this.hook = HookSettings.parse(configId, config, ResetCredentialChooseUserRelexedHook.CONFIG_PREFIX,
+                ResetCredentialChooseUserRelexedHook.HOOK_URL, null, null);
+    }
+
+    public static ResetCredentialPolicy compile(String configId, Map<String, String> config) {
+        return new ResetCredentialPolicy(configId, config);
+    }
+
+    /**
+     * Whether unknown and disabled users are told so, which allows username guessing.
+     */
+    public boolean isPrompt() {
+        return prompt;
+    }
+
+    /**
+     * The rate limits, or null when none is set.
+     */
+    public RequestRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * The unknown user cache, or null when it is disabled.
+     */
+    public UnknownUserCache getUnknownUsers() {
+        return unknownUsers;
+    }
+
+    /**
+     * The hook, or null when none is configured.
+     */
+    public HookSettings getHook() {
+        return hook;
+    }
+}
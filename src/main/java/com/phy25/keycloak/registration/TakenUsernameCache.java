@@ -0,0 +1,116 @@
+package com.phy25.keycloak.registration;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Size-bounded LRU cache of usernames found in use, shared by the availability
+ * and suggestion endpoints so a name typed again is not looked up again. Names
+ * rarely become free, so entries only expire after a TTL; a name freed meanwhile
+ * is reported taken until then, while the registration form itself always checks
+ * the user store. Admin changes to users, which may free a name, drop the entries
+ * on every node of a cluster.
+ */
+public class TakenUsernameCache {
+
+    private static final Logger logger = Logger.getLogger(TakenUsernameCache.class);
+
+    private static final String TOPIC = "taken-username";
+
+    private static volatile TakenUsernameCache instance = new TakenUsernameCache(60000L, 10000);
+
+    static {
+        UsernameClusterCache.addMessageListener(TOPIC, (realmId, username) -> clear());
+    }
+
+    private final long ttlMillis;
+    private final Entries entries;
+
+    private TakenUsernameCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new Entries(maxEntries);
+    }
+
+    /**
+     * Sets TTL (seconds, 0 disables) and size, from the provider options
+     * takenCacheTtl and takenCacheSize.
+     */
+    public static void configure(long ttlSeconds, int maxEntries) {
+        logger.debugf("Taken username cache: TTL %d s, %d entries", ttlSeconds, maxEntries);
+        instance = ttlSeconds > 0 ? new TakenUsernameCache(ttlSeconds * 1000L, Math.max(1, maxEntries)) : null;
+    }
+
+    private static String key(String realmId, String username) {
+        return realmId + '\u0000' + username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static boolean isTaken(String realmId, String username) {
+        TakenUsernameCache cache = instance;
+        if (cache == null || realmId == null || username == null) {
+            return false;
+        }
+        String key = key(realmId, username);
+        long now = System.currentTimeMillis();
+        synchronized (cache.entries) {
+            Long expires = cache.entries.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires <= now) {
+                cache.entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public static void putTaken(String realmId, String username) {
+        TakenUsernameCache cache = instance;
+        if (cache == null || realmId == null || username == null) {
+            return;
+        }
+        String key = key(realmId, username);
+        Long expires = System.currentTimeMillis() + cache.ttlMillis;
+        synchronized (cache.entries) {
+            cache.entries.put(key, expires);
+        }
+    }
+
+    /**
+     * Forgets every name, for changes that may have freed names not known here.
+     */
+    public static void invalidateAll() {
+        UsernameClusterCache.publish(TOPIC, null, null);
+    }
+
+    private static void clear() {
+        TakenUsernameCache cache = instance;
+        if (cache != null) {
+            synchronized (cache.entries) {
+                cache.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Entries in access order, dropping the least recently used beyond the limit.
+     */
+    private static class Entries extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Entries(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Size-bounded LRU cache of identifiers the user store did not know, so repeated
+ * lookups of the same missing user are answered from memory for a short while.
+ * Entries are dropped when a user with that username or email registers, on
+ * every node of a cluster.
+ */
+public class UnknownUserCache {
+
+    private static final Logger logger = Logger.getLogger(UnknownUserCache.class);
+
+    public static final String TTL = "miss-cache-ttl";
+    public static final String MAX_ENTRIES = "miss-cache-size";
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final ConfigCache<UnknownUserCache> CACHES = new ConfigCache<UnknownUserCache>();
+    private static final Set<UnknownUserCache> INSTANCES = Collections.newSetFromMap(new WeakHashMap<UnknownUserCache, Boolean>());
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+    private static final String TOPIC = "unknown-user";
+
+    static {
+        UsernameClusterCache.addMessageListener(TOPIC, UnknownUserCache::forget);
+    }
+
+    private final long ttlMillis;
+    private final Entries entries;
+
+    public UnknownUserCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new Entries(maxEntries);
+    }
+
+    public static void addConfigProperties(List<ProviderConfigProperty> properties, String prefix) {
+        ProviderConfigProperty property;
+        property = new ProviderConfigProperty();
+        property.setName(prefix + TTL);
+        property.setLabel("Unknown User Cache TTL");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Seconds to remember that no user has the entered username or email. Empty or 0 disables");
+        properties.add(property);
+        property = new ProviderConfigProperty();
+        property.setName(prefix + MAX_ENTRIES);
+        property.setLabel("Unknown User Cache Size");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Maximum number of remembered unknown users, least recently used are evicted first. Default " + DEFAULT_MAX_ENTRIES);
+        properties.add(property);
+    }
+
+    /**
+     * Returns the cache for an execution config, or null when it is disabled.
+     */
+    public static UnknownUserCache forConfig(String configId, Map<String, String> config, String prefix) {
+        String source = config.get(prefix + TTL) + "|" + config.get(prefix + MAX_ENTRIES);
+        return CACHES.get(configId, source, s -> {
+            long ttl = number(config.get(prefix + TTL), 0);
+            if (ttl == 0) {
+                return null;
+            }
+            int maxEntries = (int) Math.min(Integer.MAX_VALUE, number(config.get(prefix + MAX_ENTRIES), DEFAULT_MAX_ENTRIES));
+            UnknownUserCache cache = new UnknownUserCache(TimeUnit.SECONDS.toMillis(ttl), Math.max(1, maxEntries));
+            synchronized (INSTANCES) {
+                INSTANCES.add(cache);
+            }
+            return cache;
+        });
+    }
+
+    private static long number(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid unknown user cache setting '%s', using %d", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Forgets an identifier in every cache, called when a user takes it.
+     */
+    public static void invalidate(String realmId, String identifier) {
+        if (realmId == null || identifier == null) {
+            return;
+        }
+        UsernameClusterCache.publish(TOPIC, realmId, identifier);
+    }
+
+    /**
+     * Forgets everything, for changes whose identifiers are not known.
+     */
+    public static void invalidateAll() {
+        UsernameClusterCache.publish(TOPIC, null, null);
+    }
+
+    private static void forget(String realmId, String identifier) {
+        INVALIDATIONS.incrementAndGet();
+        String key = realmId == null || identifier == null ? null : key(realmId, identifier);
+        synchronized (INSTANCES) {
+            for (UnknownUserCache cache : INSTANCES) {
+                synchronized (cache.entries) {
+                    if (key == null) {
+                        cache.entries.clear();
+                    } else {
+                        cache.entries.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes whenever an entry is invalidated. Taken before a lookup and passed to
+     * {@link #putUnknown} so a miss that raced with a registration is not stored.
+     */
+    public static long version() {
+        return INVALIDATIONS.get();
+    }
+
+    private static String key(String realmId, String identifier) {
+        return realmId + '\u0000' + identifier.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public boolean isUnknown(String realmId, String identifier) {
+        String key = key(realmId, identifier);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires <= now) {
+                entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public void putUnknown(String realmId, String identifier, long version) {
+        String key = key(realmId, identifier);
+        Long expires = System.currentTimeMillis() + ttlMillis;
+        synchronized (entries) {
+            if (INVALIDATIONS.get() == version) {
+                entries.put(key, expires);
+            }
+        }
+    }
+
+    /**
+     * Entries in access order, dropping the least recently used beyond the limit.
+     */
+    private static class Entries extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Entries(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
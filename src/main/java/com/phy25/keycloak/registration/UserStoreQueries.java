@@ -0,0 +1,171 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.UserStorageProvider;
+
+/**
+ * Existence checks that answer several questions with one user store query,
+ * and paged walks over all users of a realm. They query Keycloak's JPA store
+ * directly when all users of the realm live there; with user federation, or
+ * without a JPA store, each question is asked through the user providers
+ * instead so federated users are not missed.
+ */
+public class UserStoreQueries {
+
+    private static final Logger logger = Logger.getLogger(UserStoreQueries.class);
+
+    private UserStoreQueries() {
+    }
+
+    private static EntityManager entityManager(KeycloakSession session, RealmModel realm) {
+        if (!realm.getComponents(realm.getId(), UserStorageProvider.class.getName()).isEmpty()) {
+            return null;
+        }
+        JpaConnectionProvider jpa = session.getProvider(JpaConnectionProvider.class);
+        return jpa == null ? null : jpa.getEntityManager();
+    }
+
+    /**
+     * The usernames, given in lower case, that are already in use.
+     */
+    public static Set<String> existingUsernames(KeycloakSession session, RealmModel realm, List<String> usernames) {
+        EntityManager em = usernames.size() > 1 ? entityManager(session, realm) : null;
+        if (em != null) {
+            try {
+                List<String> found = em.createQuery("select u.username from UserEntity u where u.realmId = :realmId and u.username in :usernames", String.class)
+                        .setParameter("realmId", realm.getId())
+                        .setParameter("usernames", usernames)
+                        .getResultList();
+                return new HashSet<String>(found);
+            } catch (RuntimeException e) {
+                logger.warn("Bulk username query failed, looking up usernames one by one", e);
+            }
+        }
+        Set<String> taken = new HashSet<String>();
+        for (String username : usernames) {
+            if (session.users().getUserByUsername(username, realm) != null) {
+                taken.add(username);
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * A page of the realm's users, without service accounts, for walking all of them.
+     * In the JPA store pages are read in username order after the last username of
+     * the previous page, which stays fast deep into the list; otherwise the user
+     * providers are asked for the page at the given offset.
+     */
+    public static List<UsernamePolicyAudit.Account> userPage(KeycloakSession session, RealmModel realm, String after, int first, int max) {
+        EntityManager em = entityManager(session, realm);
+        if (em != null) {
+            TypedQuery<Object[]> query = em.createQuery("select u.id, u.username from UserEntity u where u.realmId = :realmId"
+                    + " and u.serviceAccountClientLink is null" + (after == null ? "" : " and u.username > :after")
+                    + " order by u.username", Object[].class)
+                    .setParameter("realmId", realm.getId())
+                    .setMaxResults(max);
+            if (after != null) {
+                query.setParameter("after", after);
+            }
+            List<UsernamePolicyAudit.Account> page = new ArrayList<UsernamePolicyAudit.Account>(max);
+            for (Object[] row : query.getResultList()) {
+                page.add(new UsernamePolicyAudit.Account((String) row[0], (String) row[1]));
+            }
+            return page;
+        }
+        List<UsernamePolicyAudit.Account> page = new ArrayList<UsernamePolicyAudit.Account>(max);
+        for (UserModel user : session.users().getUsers(realm, first, max, false)) {
+            page.add(new UsernamePolicyAudit.Account(user.getId(), user.getUsername()));
+        }
+        return page;
+    }
+
+    /**
+     * Passes the email of every user of the realm that has one, reading the users
+     * a page at a time. In the JPA store pages are read in ID order after the last
+     * ID of the previous page, so each page costs the same however deep the walk
+     * is; otherwise the user providers are asked for the page at each offset.
+     */
+    public static void forEachEmail(KeycloakSession session, RealmModel realm, int pageSize, Consumer<String> emails) {
+        EntityManager em = entityManager(session, realm);
+        if (em != null) {
+            String after = null;
+            while (true) {
+                TypedQuery<Object[]> query = em.createQuery("select u.id, u.email from UserEntity u where u.realmId = :realmId"
+                        + (after == null ? "" : " and u.id > :after") + " order by u.id", Object[].class)
+                        .setParameter("realmId", realm.getId())
+                        .setMaxResults(pageSize);
+                if (after != null) {
+                    query.setParameter("after", after);
+                }
+                List<Object[]> rows = query.getResultList();
+                for (Object[] row : rows) {
+                    if (row[1] != null) {
+                        emails.accept((String) row[1]);
+                    }
+                }
+                if (rows.size() < pageSize) {
+                    return;
+                }
+                after = (String) rows.get(rows.size() - 1)[0];
+            }
+        }
+        for (int first = 0; ; first += pageSize) {
+            List<UserModel> users = session.users().getUsers(realm, first, pageSize, false);
+            for (UserModel user : users) {
+                if (user.getEmail() != null) {
+                    emails.accept(user.getEmail());
+                }
+            }
+            if (users.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Which of a username and an email are in use, asked together. Either may be
+     * null to skip it. Returns {@code [usernameExists, emailExists]}.
+     */
+    public static boolean[] usernameAndEmailExist(KeycloakSession session, RealmModel realm, String username, String email) {
+        String name = username == null ? null : username.trim().toLowerCase(Locale.ROOT);
+        String mail = email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+        EntityManager em = name != null && mail != null ? entityManager(session, realm) : null;
+        if (em != null) {
+            try {
+                TypedQuery<Object[]> query = em.createQuery("select u.username, u.email from UserEntity u where u.realmId = :realmId"
+                        + " and (u.username = :username or u.email = :email)", Object[].class)
+                        .setParameter("realmId", realm.getId())
+                        .setParameter("username", name)
+                        .setParameter("email", mail);
+                boolean[] exist = new boolean[2];
+                for (Object[] row : query.getResultList()) {
+                    exist[0] |= name.equals(row[0]);
+                    exist[1] |= mail.equals(row[1]);
+                }
+                return exist;
+            } catch (RuntimeException e) {
+                logger.warn("Combined username and email query failed, looking them up one by one", e);
+            }
+        }
+        return new boolean[] {
+                name != null && !existingUsernames(session, realm, Collections.singletonList(name)).isEmpty(),
+                mail != null && session.users().getUserByEmail(mail, realm) != null
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.keycloak.authentication.forms.RegistrationPage;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.services.messages.Messages;
+
+/**
+ * Checks whether usernames could be registered in a realm, the way the
+ * registration form would: the username rules of the registration execution,
+ * the user store and the hook. Each stage handles all names at once, so the user
+ * store is asked with one query and the hook with one request however many names
+ * are checked. Names found in use are remembered in the {@link TakenUsernameCache}.
+ */
+public class UsernameAvailability {
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final UsernamePolicy policy;
+    private final UsernameRulePipeline rules;
+    private final HookHttpClient hookClient;
+    private final String action;
+
+    public UsernameAvailability(KeycloakSession session, RealmModel realm, UsernamePolicy policy,
+                                UsernameRulePipeline rules, HookHttpClient hookClient, String action) {
+        this.session = session;
+        this.realm = realm;
+        this.policy = policy;
+        this.rules = rules;
+        this.hookClient = hookClient;
+        this.action = action;
+    }
+
+    /**
+     * Checks the usernames and returns for each the error of the first check it
+     * fails, or null when it is available. Like on the registration form, the
+     * rules and the hook see each name as given, while the user store is asked in
+     * lower case as Keycloak stores usernames.
+     */
+    public Map<String, FormMessage> check(List<String> usernames, String email) {
+        return check(usernames, email, true);
+    }
+
+    /**
+     * Checks the usernames like {@link #check(List, String)}. Unless
+     * {@code hookPerName} is set, a hook that is called once for each name
+     * ({@code json} off) is only asked when a single name is left; otherwise the
+     * names are returned without its verdict.
+     */
+    public Map<String, FormMessage> check(List<String> usernames, String email, boolean hookPerName) {
+        UsernameMetricsProvider metrics = UsernameMetricsProvider.of(session);
+        Map<String, FormMessage> results = new LinkedHashMap<String, FormMessage>();
+        List<String> pending = new ArrayList<String>();
+        for (String name : usernames) {
+            if (name.trim().isEmpty() || results.containsKey(name)) {
+                continue;
+            }
+            UsernameRuleContext context = new UsernameRuleContext(session, realm, policy, name, email);
+            List<FormMessage> errors = rules.check(context, true, metrics, action);
+            if (!errors.isEmpty()) {
+                results.put(name, errors.get(0));
+            } else if (TakenUsernameCache.isTaken(realm.getId(), name)) {
+                results.put(name, new FormMessage(RegistrationPage.FIELD_USERNAME, Messages.USERNAME_EXISTS));
+            } else {
+                results.put(name, null);
+                pending.add(name);
+            }
+        }
+        if (pending.isEmpty()) {
+            return results;
+        }
+
+        long started = System.nanoTime();
+        List<String> stored = new ArrayList<String>(pending.size());
+        for (String name : pending) {
+            stored.add(storedName(name));
+        }
+        Set<String> taken = UserStoreQueries.existingUsernames(session, realm, stored);
+        metrics.recordCheck(action, UsernameMetricsProvider.CHECK_USER_LOOKUP, System.nanoTime() - started);
+        List<String> free = new ArrayList<String>(pending.size());
+        for (String name : pending) {
+            if (taken.contains(storedName(name))) {
+                TakenUsernameCache.putTaken(realm.getId(), name);
+                results.put(name, new FormMessage(RegistrationPage.FIELD_USERNAME, Messages.USERNAME_EXISTS));
+            } else {
+                free.add(name);
+            }
+        }
+
+        HookSettings hook = policy.getHook();
+        if (free.isEmpty() || hook == null || !hook.isJson() && free.size() > 1 && !hookPerName) {
+            return results;
+        }
+        started = System.nanoTime();
+        HookRequest request = HookRequest.registration(hook.getUrl(), free.get(0), email).withCandidates(free);
+        Map<String, HookVerdict> verdicts = UsernameHook.startBatch(hookClient.get(), request, hook.isJson(),
+                hook.getTimeoutMillis(), hook.getCache(), hook.getBreaker()).await();
+        long hookTime = System.nanoTime() - started;
+        metrics.recordCheck(action, UsernameMetricsProvider.CHECK_HOOK, hookTime);
+        for (Map.Entry<String, HookVerdict> verdict : verdicts.entrySet()) {
+            metrics.recordHook(action, verdict.getValue().getResult(), hookTime);
+            if (verdict.getValue().rejects(hook.isFailOpen())) {
+                results.put(verdict.getKey(), new FormMessage(RegistrationPage.FIELD_USERNAME, RegistrationUsernameConstants.REGISTRATION_PREVENTED_EXTERNAL));
+            }
+        }
+        return results;
+    }
+
+    private static String storedName(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,322 @@
+package com.phy25.keycloak.registration;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionType;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.infinispan.notifications.cachemanagerlistener.annotation.ViewChanged;
+import org.infinispan.notifications.cachemanagerlistener.event.ViewChangedEvent;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * The module's own Infinispan caches, shared by the nodes of a cluster. One
+ * holds hook verdicts, so a name checked on one node is not sent to the hook
+ * again by the others; it is bounded and evicts. The other holds a generation
+ * token per execution config and is never evicted. Changing the token drops
+ * every node's values derived from that config (compiled configs, local
+ * verdicts) and retires its shared verdicts. A third one carries short-lived
+ * messages, so a node that saw a user change can tell the others to drop what
+ * they cached about that user. Callbacks can also be told when nodes join or
+ * leave the cluster.
+ *
+ * The caches are meant to be declared in Keycloak's cache container (the
+ * infinispan subsystem of standalone-ha.xml), where operators can tune them. A
+ * cache that is not declared is defined at startup with fixed settings, as a
+ * replicated cache when the server is clustered. Without Infinispan everything
+ * stays local to the node. Every
+ * factory that calls {@link #init} calls {@link #close} once; the caches are
+ * let go when the last one does.
+ */
+public class UsernameClusterCache {
+
+    private static final Logger logger = Logger.getLogger(UsernameClusterCache.class);
+
+    public static final String CACHE_NAME = "registration-username";
+    public static final String GENERATIONS_CACHE_NAME = "registration-username-generations";
+    public static final String MESSAGES_CACHE_NAME = "registration-username-messages";
+    public static final long DEFAULT_SIZE = 100000L;
+
+    private static final String VERDICT = "verdict:";
+    // prefix of the token a config gets on first use, which invalidates nothing
+    private static final String INITIAL = "initial:";
+    private static final long MESSAGE_SIZE = 10000L;
+    private static final long MESSAGE_LIFESPAN_MINUTES = 1;
+
+    private static final List<Consumer<String>> INVALIDATION_LISTENERS = new CopyOnWriteArrayList<Consumer<String>>();
+    private static final List<Runnable> VIEW_LISTENERS = new CopyOnWriteArrayList<Runnable>();
+    private static final ConcurrentMap<String, List<BiConsumer<String, String>>> MESSAGE_LISTENERS
+            = new ConcurrentHashMap<String, List<BiConsumer<String, String>>>();
+
+    private static volatile UsernameClusterCache instance;
+    private static int users;
+
+    private final EmbeddedCacheManager cacheManager;
+    private final Cache<String, String> cache;
+    private final Cache<String, String> generationCache;
+    // null when the server is not clustered
+    private final Cache<String, String> messageCache;
+    private final ConcurrentMap<String, String> generations = new ConcurrentHashMap<String, String>();
+    private final GenerationListener listener = new GenerationListener();
+    private final MessageListener messageListener = new MessageListener();
+    private final MembershipListener membershipListener = new MembershipListener();
+
+    private UsernameClusterCache(EmbeddedCacheManager cacheManager, Cache<String, String> cache, Cache<String, String> generationCache,
+                                 Cache<String, String> messageCache) {
+        this.cacheManager = cacheManager;
+        this.cache = cache;
+        this.generationCache = generationCache;
+        this.messageCache = messageCache;
+    }
+
+    /**
+     * Starts the shared caches, once per server. Called from the provider factories' postInit.
+     */
+    public static synchronized void init(KeycloakSessionFactory factory, long maxEntries) {
+        users++;
+        if (instance != null) {
+            return;
+        }
+        KeycloakSession session = factory.create();
+        try {
+            InfinispanConnectionProvider connections = session.getProvider(InfinispanConnectionProvider.class);
+            if (connections == null) {
+                logger.debug("No Infinispan connection provider, username caches stay local");
+                return;
+            }
+            EmbeddedCacheManager cacheManager = connections.getCache(InfinispanConnectionProvider.WORK_CACHE_NAME).getCacheManager();
+            boolean clustered = cacheManager.getCacheManagerConfiguration().isClustered();
+            if (cacheManager.getCacheConfiguration(CACHE_NAME) == null) {
+                logDefined(CACHE_NAME);
+                ConfigurationBuilder builder = new ConfigurationBuilder();
+                builder.clustering().cacheMode(clustered ? CacheMode.REPL_ASYNC : CacheMode.LOCAL);
+                builder.memory().evictionType(EvictionType.COUNT).size(maxEntries);
+                cacheManager.defineConfiguration(CACHE_NAME, builder.build());
+            }
+            if (cacheManager.getCacheConfiguration(GENERATIONS_CACHE_NAME) == null) {
+                logDefined(GENERATIONS_CACHE_NAME);
+                // one small entry per execution config, synchronous so a new token is seen before the change returns
+                ConfigurationBuilder builder = new ConfigurationBuilder();
+                builder.clustering().cacheMode(clustered ? CacheMode.REPL_SYNC : CacheMode.LOCAL);
+                cacheManager.defineConfiguration(GENERATIONS_CACHE_NAME, builder.build());
+            }
+            if (clustered && cacheManager.getCacheConfiguration(MESSAGES_CACHE_NAME) == null) {
+                logDefined(MESSAGES_CACHE_NAME);
+                ConfigurationBuilder builder = new ConfigurationBuilder();
+                builder.clustering().cacheMode(CacheMode.REPL_ASYNC);
+                builder.memory().evictionType(EvictionType.COUNT).size(MESSAGE_SIZE);
+                cacheManager.defineConfiguration(MESSAGES_CACHE_NAME, builder.build());
+            }
+            UsernameClusterCache clusterCache = new UsernameClusterCache(cacheManager, cacheManager.<String, String>getCache(CACHE_NAME),
+                    cacheManager.<String, String>getCache(GENERATIONS_CACHE_NAME),
+                    clustered ? cacheManager.<String, String>getCache(MESSAGES_CACHE_NAME) : null);
+            clusterCache.generationCache.addListener(clusterCache.listener);
+            if (clusterCache.messageCache != null) {
+                clusterCache.messageCache.addListener(clusterCache.messageListener);
+            }
+            cacheManager.addListener(clusterCache.membershipListener);
+            instance = clusterCache;
+            logger.debugf("Username cache %s started, mode %s", CACHE_NAME, clusterCache.cache.getCacheConfiguration().clustering().cacheMode());
+        } catch (RuntimeException | LinkageError e) {
+            logger.warn("Failed to start the shared username cache, caches stay local", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    private static void logDefined(String name) {
+        logger.infof("Cache %s is not configured in the cache container, defined with fixed settings", name);
+    }
+
+    /**
+     * Lets go of the shared caches once every factory that started them has closed.
+     */
+    public static synchronized void close() {
+        if (users > 0 && --users > 0) {
+            return;
+        }
+        if (instance != null) {
+            instance.generationCache.removeListener(instance.listener);
+            if (instance.messageCache != null) {
+                instance.messageCache.removeListener(instance.messageListener);
+            }
+            instance.cacheManager.removeListener(instance.membershipListener);
+            instance = null;
+        }
+    }
+
+    /**
+     * The shared cache, or null when it is not available.
+     */
+    public static UsernameClusterCache get() {
+        return instance;
+    }
+
+    /**
+     * Registers a callback run on every node when an execution config changes.
+     */
+    public static void addInvalidationListener(Consumer<String> listener) {
+        INVALIDATION_LISTENERS.add(listener);
+    }
+
+    /**
+     * Drops everything derived from an execution config, on all nodes when the
+     * shared cache is available and on this node otherwise.
+     */
+    public static void invalidateConfig(String configId) {
+        UsernameClusterCache clusterCache = instance;
+        if (clusterCache != null) {
+            // the listener runs the local invalidation on each node
+            clusterCache.generationCache.put(configId, UUID.randomUUID().toString());
+        } else {
+            notifyInvalidation(configId);
+        }
+    }
+
+    private static void notifyInvalidation(String configId) {
+        for (Consumer<String> listener : INVALIDATION_LISTENERS) {
+            listener.accept(configId);
+        }
+    }
+
+    /**
+     * Whether this node is known to serve the realm's users alone: the server is
+     * not clustered, or no other node is in the cluster right now. False when the
+     * shared caches are not available, as nothing is known then.
+     */
+    public static boolean isSingleNode() {
+        UsernameClusterCache clusterCache = instance;
+        if (clusterCache == null) {
+            return false;
+        }
+        List<?> members = clusterCache.cacheManager.getMembers();
+        return members == null || members.size() <= 1;
+    }
+
+    /**
+     * Registers a callback run on this node whenever nodes join or leave the cluster.
+     */
+    public static void addViewListener(Runnable listener) {
+        VIEW_LISTENERS.add(listener);
+    }
+
+    /**
+     * Registers a callback run on every node for each message published on a
+     * topic. It gets the realm ID and the identifier of the message.
+     */
+    public static void addMessageListener(String topic, BiConsumer<String, String> listener) {
+        MESSAGE_LISTENERS.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<BiConsumer<String, String>>()).add(listener);
+    }
+
+    /**
+     * Runs the topic's listeners on this node right away and, when the server is
+     * clustered, on the other nodes shortly after. Realm ID and identifier may be
+     * null, e.g. for a message about every user.
+     */
+    public static void publish(String topic, String realmId, String identifier) {
+        notifyMessage(topic, realmId, identifier);
+        UsernameClusterCache clusterCache = instance;
+        if (clusterCache != null && clusterCache.messageCache != null) {
+            String message = topic + '\u0000' + (realmId == null ? "" : realmId) + '\u0000' + (identifier == null ? "" : identifier);
+            clusterCache.messageCache.putAsync(UUID.randomUUID().toString(), message, MESSAGE_LIFESPAN_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void notifyMessage(String topic, String realmId, String identifier) {
+        List<BiConsumer<String, String>> listeners = MESSAGE_LISTENERS.get(topic);
+        if (listeners != null) {
+            for (BiConsumer<String, String> listener : listeners) {
+                listener.accept(realmId, identifier);
+            }
+        }
+    }
+
+    private String generation(String configId) {
+        String generation = generations.get(configId);
+        if (generation == null) {
+            String initial = INITIAL + UUID.randomUUID();
+            String current = generationCache.putIfAbsent(configId, initial);
+            generation = current == null ? initial : current;
+            String known = generations.putIfAbsent(configId, generation);
+            if (known != null) {
+                generation = known;
+            }
+        }
+        return generation;
+    }
+
+    private String verdictKey(String configId, String key) {
+        return VERDICT + configId + ':' + generation(configId) + ':' + key;
+    }
+
+    /**
+     * A shared hook verdict and the time it expires, or null.
+     */
+    public String getVerdict(String configId, String key) {
+        return cache.get(verdictKey(configId, key));
+    }
+
+    public void putVerdict(String configId, String key, String verdict, long ttlMillis) {
+        cache.putAsync(verdictKey(configId, key), verdict, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Listener
+    public class GenerationListener {
+
+        @CacheEntryCreated
+        @CacheEntryModified
+        public void onGeneration(CacheEntryEvent<String, String> event) {
+            if (event.isPre()) {
+                return;
+            }
+            String configId = event.getKey();
+            generations.put(configId, event.getValue());
+            if (!event.getValue().startsWith(INITIAL)) {
+                notifyInvalidation(configId);
+            }
+        }
+    }
+
+    @Listener
+    public static class MessageListener {
+
+        @CacheEntryCreated
+        public void onMessage(CacheEntryEvent<String, String> event) {
+            // the publishing node has run its listeners already
+            if (event.isPre() || event.isOriginLocal() || event.getValue() == null) {
+                return;
+            }
+            String[] parts = event.getValue().split("\u0000", 3);
+            if (parts.length == 3) {
+                notifyMessage(parts[0], parts[1].isEmpty() ? null : parts[1], parts[2].isEmpty() ? null : parts[2]);
+            }
+        }
+    }
+
+    @Listener
+    public static class MembershipListener {
+
+        @ViewChanged
+        public void onViewChanged(ViewChangedEvent event) {
+            for (Runnable listener : VIEW_LISTENERS) {
+                listener.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.Details;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Keeps the caches of this module in line with user and execution config
+ * changes. Has to be added to the realm's event listeners; admin changes to
+ * users are only seen in detail when admin events include the representation,
+ * otherwise the affected caches are dropped.
+ */
+public class UsernameEventListenerProviderFactory implements EventListenerProvider, EventListenerProviderFactory {
+
+    private static final Logger logger = Logger.getLogger(UsernameEventListenerProviderFactory.class);
+
+    public static final String PROVIDER_ID = "registration-username-events";
+
+    private final KeycloakSession session;
+
+    public UsernameEventListenerProviderFactory() {
+        this(null);
+    }
+
+    private UsernameEventListenerProviderFactory(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event.getError() != null || event.getType() == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case REGISTER:
+            case UPDATE_EMAIL:
+            case UPDATE_PROFILE:
+            case IDENTITY_PROVIDER_FIRST_LOGIN:
+                break;
+            default:
+                return;
+        }
+        // a profile update only carries updated_email when the email changed
+        boolean profileUpdate = event.getType() == EventType.UPDATE_PROFILE;
+        String email = null;
+        if (event.getDetails() != null) {
+            email = event.getDetails().get(Details.UPDATED_EMAIL);
+            if (email == null && !profileUpdate) {
+                email = event.getDetails().get(Details.EMAIL);
+            }
+        }
+        if (email == null && !profileUpdate) {
+            email = lookupEmail(event.getRealmId(), event.getUserId());
+        }
+        if (email != null) {
+            KnownEmailFilter.recordEmail(event.getRealmId(), email);
+            UnknownUserCache.invalidate(event.getRealmId(), email);
+        }
+        if (event.getType() == EventType.REGISTER && event.getDetails() != null) {
+            UnknownUserCache.invalidate(event.getRealmId(), event.getDetails().get(Details.USERNAME));
+            TakenUsernameCache.putTaken(event.getRealmId(), event.getDetails().get(Details.USERNAME));
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (event.getResourceType() == ResourceType.AUTHENTICATOR_CONFIG
+                && (event.getOperationType() == OperationType.UPDATE || event.getOperationType() == OperationType.DELETE)) {
+            // resource path is authentication/config/{id}
+            String path = event.getResourcePath();
+            if (path != null) {
+                UsernameClusterCache.invalidateConfig(path.substring(path.lastIndexOf('/') + 1));
+            }
+            return;
+        }
+        if (event.getResourceType() != ResourceType.USER) {
+            return;
+        }
+        if (event.getOperationType() == OperationType.UPDATE || event.getOperationType() == OperationType.DELETE) {
+            // the username the user had is not part of the event
+            TakenUsernameCache.invalidateAll();
+        }
+        if (event.getOperationType() != OperationType.CREATE && event.getOperationType() != OperationType.UPDATE) {
+            return;
+        }
+        UserRepresentation user = null;
+        if (event.getRepresentation() != null) {
+            try {
+                user = JsonSerialization.readValue(event.getRepresentation(), UserRepresentation.class);
+            } catch (IOException e) {
+                logger.debugf(e, "Unreadable user representation in admin event");
+            }
+        }
+        if (user != null) {
+            KnownEmailFilter.recordEmail(event.getRealmId(), user.getEmail());
+            UnknownUserCache.invalidate(event.getRealmId(), user.getEmail());
+            UnknownUserCache.invalidate(event.getRealmId(), user.getUsername());
+        } else if (event.getRepresentation() == null) {
+            KnownEmailFilter.invalidate(event.getRealmId());
+            UnknownUserCache.invalidateAll();
+        }
+    }
+
+    private String lookupEmail(String realmId, String userId) {
+        if (session == null || realmId == null || userId == null) {
+            return null;
+        }
+        RealmModel realm = session.realms().getRealm(realmId);
+        UserModel user = realm == null ? null : session.users().getUserById(userId, realm);
+        return user == null ? null : user.getEmail();
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new UsernameEventListenerProviderFactory(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,379 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.client.HttpClient;
+import org.jboss.logging.Logger;
+import org.keycloak.broker.provider.util.SimpleHttp;
+import org.keycloak.provider.ProviderConfigProperty;
+
+/**
+ * Calls an external username hook on a background thread.
+ * <p>
+ * In GET mode the hook answers "yes" when the username (or email) must be
+ * rejected. In JSON mode the {@link HookRequest} is posted and the hook answers
+ * {@code {"verdict": "reject"|"allow", "reason": "...", "ttl": 60}}, or for a
+ * request with candidates {@code {"results": [{"username": "...", "verdict": ...}]}}.
+ */
+public class UsernameHook {
+
+    private static final Logger logger = Logger.getLogger(UsernameHook.class);
+
+    public static final String HOOK_MODE = "hook-mode";
+    public static final String MODE_GET = "get";
+    public static final String MODE_JSON = "json";
+
+    public enum Result {
+        MATCHED, CLEARED, FAILED, TIMED_OUT, UNAVAILABLE;
+
+        public boolean isFailure() {
+            return this == FAILED || this == TIMED_OUT || this == UNAVAILABLE;
+        }
+
+        public boolean rejects(boolean failOpen) {
+            return this == MATCHED || (isFailure() && !failOpen);
+        }
+    }
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(0, 64, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "username-hook-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public static void setMaxThreads(int maxThreads) {
+        EXECUTOR.setMaximumPoolSize(Math.max(1, maxThreads));
+    }
+
+    public static long parseTimeout(String timeout) {
+        if (timeout == null || timeout.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(timeout.trim()));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid hook timeout '%s', waiting without deadline", timeout);
+            return 0;
+        }
+    }
+
+    public static void addConfigProperties(List<ProviderConfigProperty> properties, String prefix) {
+        ProviderConfigProperty property = new ProviderConfigProperty();
+        property.setName(prefix + HOOK_MODE);
+        property.setLabel("Hook Mode");
+        property.setType(ProviderConfigProperty.LIST_TYPE);
+        property.setOptions(Arrays.asList(MODE_GET, MODE_JSON));
+        property.setDefaultValue(MODE_GET);
+        property.setHelpText("get: GET request answered with \"yes\" to reject. json: POST a JSON request answered with a JSON verdict");
+        properties.add(property);
+    }
+
+    public static boolean isJsonMode(String mode) {
+        return MODE_JSON.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Starts the hook request on a background thread. The call is answered from
+     * the cache when possible and its result stored there once it completes. The
+     * request is refused without network access when the breaker is open or its
+     * concurrency limit is reached. Cache and breaker may be null.
+     */
+    public static Call start(HttpClient client, HookRequest request, boolean json, long timeoutMillis,
+                             HookVerdictCache cache, HookCircuitBreaker breaker) {
+        if (cache != null) {
+            HookVerdict cached = cache.get(request.getCacheKey());
+            if (cached != null) {
+                logger.debugf("Cached hook result %s: %s", cached, request);
+                return new Call(request, cached);
+            }
+        }
+        Future<HookVerdict> future = submit(breaker, request,
+                () -> json ? postJsonSingle(client, request) : get(client, request),
+                v -> v.getResult().isFailure());
+        if (future == null) {
+            return new Call(request, HookVerdict.UNAVAILABLE);
+        }
+        return new Call(request, future, deadline(timeoutMillis), cache);
+    }
+
+    /**
+     * Validates all candidates of the request. In JSON mode they are sent in one
+     * request, in GET mode each uncached candidate is requested in parallel.
+     */
+    public static BatchCall startBatch(HttpClient client, HookRequest request, boolean json, long timeoutMillis,
+                                       HookVerdictCache cache, HookCircuitBreaker breaker) {
+        long deadline = deadline(timeoutMillis);
+        Map<String, HookVerdict> cached = new LinkedHashMap<String, HookVerdict>();
+        List<String> pending = new ArrayList<String>();
+        for (String candidate : request.getCandidates()) {
+            HookVerdict verdict = cache == null ? null : cache.get(request.forCandidate(candidate).getCacheKey());
+            if (verdict != null) {
+                cached.put(candidate, verdict);
+            } else {
+                pending.add(candidate);
+            }
+        }
+        if (pending.isEmpty()) {
+            return new BatchCall(request, cached, null, null, deadline, cache);
+        }
+        if (!json) {
+            List<Call> calls = new ArrayList<Call>();
+            for (String candidate : pending) {
+                calls.add(start(client, request.forCandidate(candidate), false, timeoutMillis, null, breaker));
+            }
+            return new BatchCall(request, cached, calls, null, deadline, cache);
+        }
+        HookRequest batch = request.withCandidates(pending);
+        Future<Map<String, HookVerdict>> future = submit(breaker, batch, () -> postJson(client, batch), v -> v.isEmpty());
+        return new BatchCall(batch, cached, null, future, deadline, cache);
+    }
+
+    private interface FailureCheck<T> {
+        boolean failed(T value);
+    }
+
+    private static <T> Future<T> submit(HookCircuitBreaker breaker, HookRequest request, Callable<T> call, FailureCheck<T> failureCheck) {
+        HookCircuitBreaker.Permit permit = null;
+        if (breaker != null) {
+            permit = breaker.acquire();
+            if (permit == null) {
+                logger.debug("Hook unavailable, skipped request: " + request);
+                return null;
+            }
+        }
+        HookCircuitBreaker.Permit callPermit = permit;
+        FutureTask<T> task = new FutureTask<T>(() -> {
+            boolean failed = true;
+            try {
+                T value = call.call();
+                failed = failureCheck.failed(value);
+                return value;
+            } finally {
+                if (callPermit != null) {
+                    callPermit.complete(failed);
+                }
+            }
+        });
+        try {
+            EXECUTOR.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (permit != null) {
+                permit.cancel();
+            }
+            logger.warn("Hook request rejected, too many concurrent hook calls: " + request);
+            return null;
+        }
+        return task;
+    }
+
+    private static long deadline(long timeoutMillis) {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    private static HookVerdict get(HttpClient client, HookRequest request) {
+        String url = request.getQueryUrl();
+        try {
+            String resp = SimpleHttp.doGet(url, client).asString();
+            if ("yes".equals(resp)) {
+                logger.debugf("Matched hook request: %s", url);
+                return HookVerdict.MATCHED;
+            }
+            return HookVerdict.CLEARED;
+        } catch (Exception e) {
+            logger.warn("Failed hook request: " + url, e);
+            return HookVerdict.FAILED;
+        }
+    }
+
+    private static HookVerdict postJsonSingle(HttpClient client, HookRequest request) {
+        HookVerdict verdict = postJson(client, request).get(request.getUsername());
+        return verdict == null ? HookVerdict.FAILED : verdict;
+    }
+
+    /**
+     * Posts the request and returns the verdicts by username; an empty map when
+     * the request failed.
+     */
+    private static Map<String, HookVerdict> postJson(HttpClient client, HookRequest request) {
+        Map<String, HookVerdict> verdicts = new LinkedHashMap<String, HookVerdict>();
+        try {
+            SimpleHttp.Response response = SimpleHttp.doPost(request.getHookUrl(), client)
+                    .json(request.toJson())
+                    .acceptJson()
+                    .asResponse();
+            try {
+                if (response.getStatus() >= 300) {
+                    throw new IOException("Unexpected status " + response.getStatus());
+                }
+                JsonNode body = response.asJson();
+                if (request.isBatch()) {
+                    for (JsonNode result : body.path("results")) {
+                        String username = result.path("username").asText(null);
+                        if (username != null && request.getCandidates().contains(username)) {
+                            verdicts.put(username, parseVerdict(result));
+                        }
+                    }
+                } else {
+                    verdicts.put(request.getUsername(), parseVerdict(body));
+                }
+            } finally {
+                response.close();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed hook request: " + request, e);
+            return verdicts;
+        }
+        for (Map.Entry<String, HookVerdict> verdict : verdicts.entrySet()) {
+            if (verdict.getValue().getResult() == Result.MATCHED) {
+                logger.debugf("Matched hook request: %s %s", request.getHookUrl(), verdict.getKey());
+            }
+        }
+        return verdicts;
+    }
+
+    private static HookVerdict parseVerdict(JsonNode node) {
+        String verdict = node.path("verdict").asText("");
+        Result result;
+        if ("reject".equalsIgnoreCase(verdict)) {
+            result = Result.MATCHED;
+        } else if ("allow".equalsIgnoreCase(verdict)) {
+            result = Result.CLEARED;
+        } else {
+            logger.warnf("Unknown hook verdict '%s'", verdict);
+            return HookVerdict.FAILED;
+        }
+        String reason = node.hasNonNull("reason") ? node.get("reason").asText() : null;
+        long ttl = node.hasNonNull("ttl") ? node.get("ttl").asLong(-1) : -1;
+        return new HookVerdict(result, reason, ttl);
+    }
+
+    private static <T> T await(Future<T> future, long deadline, HookRequest request, T timedOut, T failed) {
+        try {
+            if (deadline == 0) {
+                return future.get();
+            }
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // the request is left to finish in the background so its breaker permit is released
+            logger.warn("Timed out hook request: " + request);
+            return timedOut;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed;
+        } catch (ExecutionException e) {
+            logger.warn("Failed hook request: " + request, e.getCause());
+            return failed;
+        }
+    }
+
+    public static class Call {
+        private final HookRequest request;
+        private final Future<HookVerdict> future;
+        private final long deadline;
+        private final HookVerdictCache cache;
+        private HookVerdict verdict;
+
+        private Call(HookRequest request, HookVerdict verdict) {
+            this(request, null, 0, null);
+            this.verdict = verdict;
+        }
+
+        private Call(HookRequest request, Future<HookVerdict> future, long deadline, HookVerdictCache cache) {
+            this.request = request;
+            this.future = future;
+            this.deadline = deadline;
+            this.cache = cache;
+        }
+
+        public HookVerdict await() {
+            if (verdict == null) {
+                verdict = UsernameHook.await(future, deadline, request, HookVerdict.TIMED_OUT, HookVerdict.FAILED);
+                if (cache != null) {
+                    cache.put(request.getCacheKey(), verdict);
+                }
+            }
+            return verdict;
+        }
+    }
+
+    public static class BatchCall {
+        private final HookRequest request;
+        private final Map<String, HookVerdict> verdicts;
+        private final List<Call> calls;
+        private final Future<Map<String, HookVerdict>> future;
+        private final long deadline;
+        private final HookVerdictCache cache;
+        private boolean done;
+
+        private BatchCall(HookRequest request, Map<String, HookVerdict> verdicts, List<Call> calls,
+                          Future<Map<String, HookVerdict>> future, long deadline, HookVerdictCache cache) {
+            this.request = request;
+            this.verdicts = verdicts;
+            this.calls = calls;
+            this.future = future;
+            this.deadline = deadline;
+            this.cache = cache;
+        }
+
+        /**
+         * Verdicts by candidate, in request order of the uncached candidates after
+         * the cached ones. Candidates the hook did not answer for are FAILED.
+         */
+        public Map<String, HookVerdict> await() {
+            if (done) {
+                return verdicts;
+            }
+            done = true;
+            Map<String, HookVerdict> answered = new LinkedHashMap<String, HookVerdict>();
+            HookVerdict missing = HookVerdict.FAILED;
+            if (calls != null) {
+                for (Call call : calls) {
+                    answered.put(call.request.getUsername(), call.await());
+                }
+            } else if (future != null) {
+                Map<String, HookVerdict> timedOut = new LinkedHashMap<String, HookVerdict>();
+                Map<String, HookVerdict> result = UsernameHook.await(future, deadline, request, timedOut, null);
+                if (result == timedOut) {
+                    missing = HookVerdict.TIMED_OUT;
+                } else if (result != null) {
+                    answered.putAll(result);
+                }
+            } else {
+                return verdicts;
+            }
+            for (String candidate : request.getCandidates()) {
+                if (verdicts.containsKey(candidate)) {
+                    continue;
+                }
+                HookVerdict verdict = answered.get(candidate);
+                if (verdict == null) {
+                    verdict = missing;
+                }
+                verdicts.put(candidate, verdict);
+                if (cache != null) {
+                    cache.put(request.forCandidate(candidate).getCacheKey(), verdict);
+                }
+            }
+            return verdicts;
+        }
+    }
+}
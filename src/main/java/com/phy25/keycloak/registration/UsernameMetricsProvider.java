@@ -0,0 +1,49 @@
+package com.phy25.keycloak.registration;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.provider.Provider;
+
+/**
+ * Receives timings and outcomes of the username checks. Implementations must be
+ * thread-safe and cheap, they are called on the request thread.
+ */
+public interface UsernameMetricsProvider extends Provider {
+
+    String CHECK_BLOCKLIST = "blocklist";
+    String CHECK_BLOCKLIST_FILE = "blocklist_file";
+    String CHECK_REGEX = "regex";
+    String CHECK_HOOK = "hook";
+    String CHECK_USER_LOOKUP = "user_lookup";
+
+    UsernameMetricsProvider NOOP = new UsernameMetricsProvider() {
+        @Override
+        public void recordCheck(String action, String check, long nanos) {
+        }
+
+        @Override
+        public void recordHook(String action, UsernameHook.Result result, long nanos) {
+        }
+
+        @Override
+        public void recordRejection(String action, String messageKey) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * The metrics provider of the session, or a no-op one when the SPI is disabled.
+     */
+    static UsernameMetricsProvider of(KeycloakSession session) {
+        UsernameMetricsProvider provider = session.getProvider(UsernameMetricsProvider.class);
+        return provider == null ? NOOP : provider;
+    }
+
+    void recordCheck(String action, String check, long nanos);
+
+    void recordHook(String action, UsernameHook.Result result, long nanos);
+
+    void recordRejection(String action, String messageKey);
+}
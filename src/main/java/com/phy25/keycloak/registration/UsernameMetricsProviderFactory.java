@@ -0,0 +1,6 @@
+package com.phy25.keycloak.registration;
+
+import org.keycloak.provider.ProviderFactory;
+
+public interface UsernameMetricsProviderFactory extends ProviderFactory<UsernameMetricsProvider> {
+}
@@ -0,0 +1,125 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A registration username execution config, compiled: what each username rule
+ * derived from it (pattern, blocklist index, limits), the hook settings, the rate
+ * limiters and the switches of the form and the endpoints. Built once per config
+ * version through {@link CompiledConfigs} and not changed afterwards, so requests
+ * share it without locking.
+ */
+public class UsernamePolicy {
+
+    private static final Logger logger = Logger.getLogger(UsernamePolicy.class);
+
+    static final int MAX_SUGGESTIONS = 20;
+
+    private final String configId;
+    private final Map<String, String> config;
+    private final Map<String, Object> compiledRules;
+    private final boolean shortCircuit;
+    private final RequestRateLimiter rateLimiter;
+    private final HookSettings hook;
+    private final int suggestions;
+    private final boolean availability;
+    private final RequestRateLimiter sessionRateLimiter;
+    private final boolean knownEmailFilter;
+
+    private UsernamePolicy(String configId, Map<String, String> config, UsernameRulePipeline rules) {
+        this.configId = configId;
+        this.config = config;
+        this.compiledRules = rules.compile(configId, config);
+        this.shortCircuit = "true".equals(config.get(RegistrationUsername.SHORT_CIRCUIT));
+        this.rateLimiter = RequestRateLimiter.forConfig(configId, config, RegistrationUsername.CONFIG_PREFIX);
+        this.hook = HookSettings.parse(configId, config, RegistrationUsername.CONFIG_PREFIX, RegistrationUsername.HOOK_URL,
+                RegistrationUsername.HOOK_TIMEOUT, RegistrationUsername.HOOK_FAIL_OPEN);
+        this.suggestions = suggestionCount(config.get(RegistrationUsername.SUGGESTIONS));
+        this.availability = "true".equals(config.get(RegistrationUsername.AVAILABILITY));
+        String perMinute = config.get(RegistrationUsername.AVAILABILITY_RATE_LIMIT);
+        this.sessionRateLimiter = availability || suggestions > 0 ? RequestRateLimiter.forSession(configId,
+                perMinute == null || perMinute.trim().isEmpty() ? RegistrationUsername.DEFAULT_AVAILABILITY_RATE_LIMIT : perMinute) : null;
+        this.knownEmailFilter = "true".equals(config.get(RegistrationProfileFirstName.KNOWN_EMAIL_FILTER));
+    }
+
+    /**
+     * Compiles the config, an unmodifiable map, for the given rules.
+     */
+    public static UsernamePolicy compile(String configId, Map<String, String> config, UsernameRulePipeline rules) {
+        return new UsernamePolicy(configId, config, rules);
+    }
+
+    private static int suggestionCount(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_SUGGESTIONS, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid number of username suggestions '%s', endpoint disabled", value);
+            return 0;
+        }
+    }
+
+    /**
+     * ID of the execution config. Null when the execution has no config.
+     */
+    public String getConfigId() {
+        return configId;
+    }
+
+    public Map<String, String> getConfig() {
+        return config;
+    }
+
+    /**
+     * What the rule with the given id compiled from the config, or null when it
+     * compiled nothing.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getCompiledRule(String ruleId) {
+        return (T) compiledRules.get(ruleId);
+    }
+
+    public boolean isShortCircuit() {
+        return shortCircuit;
+    }
+
+    /**
+     * The registration rate limits, or null when none is set.
+     */
+    public RequestRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * The hook, or null when none is configured.
+     */
+    public HookSettings getHook() {
+        return hook;
+    }
+
+    /**
+     * Alternatives offered for a taken username, 0 when the endpoint is disabled.
+     */
+    public int getSuggestions() {
+        return suggestions;
+    }
+
+    public boolean isAvailability() {
+        return availability;
+    }
+
+    /**
+     * The per session limit of the availability endpoint, or null without one.
+     */
+    public RequestRateLimiter getSessionRateLimiter() {
+        return sessionRateLimiter;
+    }
+
+    public boolean isKnownEmailFilter() {
+        return knownEmailFilter;
+    }
+}
@@ -0,0 +1,146 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.FormMessage;
+
+/**
+ * Checks existing usernames against the current username rules of an execution
+ * config, one page at a time: a page is split across a fork/join pool, and its
+ * violations are appended to the report, in page order, before the next page is
+ * read. Only one page is held in memory, however many users there are. Each
+ * report line reads
+ * <pre>
+ * {"id":"...","username":"adm1n","messages":["usernameNotAvailableMessage"]}
+ * </pre>
+ * The hook is not called, and rules are run with every failure reported.
+ * Rules must be thread-safe, as the registration form already requires.
+ */
+public class UsernamePolicyAudit {
+
+    // below this many usernames a fork/join task checks them itself
+    private static final int SPLIT_THRESHOLD = 128;
+
+    private final UsernameRulePipeline rules;
+    private final UsernamePolicy policy;
+    private final ForkJoinPool pool;
+    private final Writer report;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong violations = new AtomicLong();
+
+    public UsernamePolicyAudit(UsernameRulePipeline rules, UsernamePolicy policy, ForkJoinPool pool, Writer report) {
+        this.rules = rules;
+        this.policy = policy;
+        this.pool = pool;
+        this.report = report;
+    }
+
+    /**
+     * An existing user; the id may be null when it is not known, e.g. for a list of
+     * usernames checked offline.
+     */
+    public static class Account {
+        private final String id;
+        private final String username;
+
+        public Account(String id, String username) {
+            this.id = id;
+            this.username = username;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+    }
+
+    /**
+     * Checks one page and appends its violations to the report. The session may be
+     * null outside of Keycloak.
+     */
+    public void checkPage(KeycloakSession session, RealmModel realm, List<Account> page) throws IOException {
+        // one slot per account, each filled by the task that checks it
+        List<List<FormMessage>> errors = new ArrayList<List<FormMessage>>(Collections.<List<FormMessage>>nCopies(page.size(), null));
+        pool.invoke(new CheckTask(session, realm, page, errors, 0, page.size()));
+
+        StringBuilder lines = new StringBuilder();
+        int found = 0;
+        for (int i = 0; i < errors.size(); i++) {
+            List<FormMessage> messages = errors.get(i);
+            if (messages.isEmpty()) {
+                continue;
+            }
+            found++;
+            Account account = page.get(i);
+            lines.append("{\"id\":");
+            JsonLines.appendString(lines, account.getId());
+            JsonLines.appendField(lines, "username", account.getUsername());
+            lines.append(",\"messages\":[");
+            for (int j = 0; j < messages.size(); j++) {
+                if (j > 0) {
+                    lines.append(',');
+                }
+                JsonLines.appendString(lines, messages.get(j).getMessage());
+            }
+            lines.append("]}\n");
+        }
+        report.write(lines.toString());
+        report.flush();
+        checked.addAndGet(page.size());
+        violations.addAndGet(found);
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getViolations() {
+        return violations.get();
+    }
+
+    private class CheckTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final KeycloakSession session;
+        private final RealmModel realm;
+        private final List<Account> page;
+        private final List<List<FormMessage>> errors;
+        private final int from;
+        private final int to;
+
+        CheckTask(KeycloakSession session, RealmModel realm, List<Account> page, List<List<FormMessage>> errors, int from, int to) {
+            this.session = session;
+            this.realm = realm;
+            this.page = page;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    UsernameRuleContext context = new UsernameRuleContext(session, realm, policy, page.get(i).getUsername(), null);
+                    errors.set(i, rules.check(context, false, UsernameMetricsProvider.NOOP, UsernameRealmResourceProviderFactory.PROVIDER_ID));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CheckTask(session, realm, page, errors, from, middle),
+                    new CheckTask(session, realm, page, errors, middle, to));
+        }
+    }
+}
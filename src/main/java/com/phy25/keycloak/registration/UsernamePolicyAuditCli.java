@@ -0,0 +1,103 @@
+package com.phy25.keycloak.registration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Checks a list of usernames against an execution config outside of Keycloak,
+ * e.g. an export of a large user table before a policy change is rolled out:
+ * <pre>
+ * java -cp keycloak-registration-username.jar:&lt;keycloak jars&gt; com.phy25.keycloak.registration.UsernamePolicyAuditCli \
+ *     --config config.json --usernames usernames.txt [--report report.jsonl] [--threads 8] [--page-size 1000]
+ * </pre>
+ * The config is the execution config as returned by the admin REST API (or just
+ * its {@code config} object). Usernames are read one per line, or as
+ * {@code id<TAB>username}, a page at a time; the report has the format of the
+ * re-validation job and goes to standard output unless a file is given. Only the
+ * built-in username rules are run. Exits with 1 when violations were found.
+ */
+public class UsernamePolicyAuditCli {
+
+    private UsernamePolicyAuditCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        String configFile = options.get("--config");
+        String usernamesFile = options.get("--usernames");
+        if (configFile == null || usernamesFile == null || args.length % 2 != 0) {
+            System.err.println("Usage: UsernamePolicyAuditCli --config <config.json> --usernames <file|-> [--report <file>] [--threads <n>] [--page-size <n>]");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("--threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int pageSize = Math.max(1, Integer.parseInt(options.getOrDefault("--page-size", "1000")));
+
+        JsonNode json;
+        try (InputStream in = Files.newInputStream(Paths.get(configFile))) {
+            json = JsonSerialization.mapper.readTree(in);
+        }
+        JsonNode configNode = json.has("config") ? json.get("config") : json;
+        Map<String, String> config = new HashMap<String, String>();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = configNode.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            config.put(field.getKey(), field.getValue().asText());
+        }
+        String configId = json.path("id").asText("cli");
+        UsernameRulePipeline rules = UsernameRulePipeline.builtIn();
+        UsernamePolicy policy = UsernamePolicy.compile(configId, Collections.unmodifiableMap(config), rules);
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        String reportFile = options.get("--report");
+        long violations;
+        try (BufferedReader usernames = "-".equals(usernamesFile)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(usernamesFile), StandardCharsets.UTF_8);
+             Writer report = reportFile == null
+                     ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                     : Files.newBufferedWriter(Paths.get(reportFile), StandardCharsets.UTF_8)) {
+            UsernamePolicyAudit audit = new UsernamePolicyAudit(rules, policy, pool, report);
+            List<UsernamePolicyAudit.Account> page = new ArrayList<UsernamePolicyAudit.Account>(pageSize);
+            String line;
+            while ((line = usernames.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                String username = (tab < 0 ? line : line.substring(tab + 1)).trim();
+                if (username.isEmpty()) {
+                    continue;
+                }
+                page.add(new UsernamePolicyAudit.Account(tab < 0 ? null : line.substring(0, tab).trim(), username));
+                if (page.size() == pageSize) {
+                    audit.checkPage(null, null, page);
+                    page.clear();
+                }
+            }
+            if (!page.isEmpty()) {
+                audit.checkPage(null, null, page);
+            }
+            System.err.printf("%d usernames checked, %d violations%n", audit.getChecked(), audit.getViolations());
+            violations = audit.getViolations();
+        } finally {
+            pool.shutdown();
+        }
+        System.exit(violations > 0 ? 1 : 0);
+    }
+}
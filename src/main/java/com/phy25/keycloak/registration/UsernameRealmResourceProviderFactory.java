@@ -0,0 +1,387 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.authentication.FormAction;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.managers.AuthenticationSessionManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+import org.keycloak.services.resources.admin.permissions.UserPermissionEvaluator;
+import org.keycloak.services.validation.Validation;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.keycloak.theme.Theme;
+
+/**
+ * REST endpoints for the registration page under
+ * {@code /realms/{realm}/registration-username}, answered with the config of the
+ * realm's registration username execution (or the combined profile execution).
+ * <p>
+ * {@code GET suggestions?username=jdoe&email=jdoe@example.com} returns
+ * {@code {"username": "jdoe", "suggestions": ["jdoe7", "jdoe_42"]}}, alternatives
+ * that pass the username rules, are not in use and are not rejected by the hook.
+ * <p>
+ * {@code GET availability?username=jdoe} runs the same checks for one name while
+ * it is typed and returns {@code {"username": "jdoe", "available": false,
+ * "message": "Username already exists."}}, the message in the user's language.
+ * Both need the authentication session of the registration page and are limited
+ * per session and per client IP.
+ * <p>
+ * {@code POST revalidation}, with a bearer token of a realm admin allowed to
+ * manage users, starts checking all existing users against the current username
+ * rules in the background ({@link UsernameRevalidationJob}). {@code GET
+ * revalidation} returns its progress, {@code DELETE revalidation} cancels it and
+ * {@code GET revalidation/report} downloads the violations found so far; these
+ * need the right to view users.
+ * <p>
+ * {@code GET metrics}, only in the admin realm and with a bearer token of an admin
+ * allowed to view it, returns the metrics of the default {@code username-metrics}
+ * provider in the Prometheus text format.
+ */
+public class UsernameRealmResourceProviderFactory implements RealmResourceProvider, RealmResourceProviderFactory {
+
+    private static final Logger logger = Logger.getLogger(UsernameRealmResourceProviderFactory.class);
+
+    public static final String PROVIDER_ID = "registration-username";
+
+    // generated per suggestion asked for, as some will be taken or rejected
+    private static final int CANDIDATES_PER_SUGGESTION = 3;
+    private static final String REPORT_TYPE = "application/x-ndjson";
+    private static final String METRICS_TYPE = "text/plain; version=0.0.4";
+
+    private final KeycloakSession session;
+
+    public UsernameRealmResourceProviderFactory() {
+        this(null);
+    }
+
+    private UsernameRealmResourceProviderFactory(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Path("suggestions")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response suggestions(@QueryParam("username") String username, @QueryParam("email") String email) {
+        RealmModel realm = session.getContext().getRealm();
+        UsernamePolicy policy = registrationPolicy(realm);
+        int count = policy == null ? 0 : policy.getSuggestions();
+        if (count == 0) {
+            throw new NotFoundException();
+        }
+        if (Validation.isBlank(username)) {
+            throw new BadRequestException();
+        }
+        Response limited = sessionRateLimit(policy, authSessionId(realm));
+        if (limited == null) {
+            limited = rateLimit(policy, username);
+        }
+        if (limited != null) {
+            return limited;
+        }
+
+        // candidates are offered, not registered, so a hook called per name is left to the form
+        List<String> candidates = UsernameSuggestions.candidates(username, email, count * CANDIDATES_PER_SUGGESTION);
+        List<String> suggestions = new ArrayList<String>(count);
+        for (Map.Entry<String, FormMessage> result : availability(realm, policy).check(candidates, email, false).entrySet()) {
+            if (result.getValue() == null && suggestions.size() < count) {
+                suggestions.add(result.getKey());
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("username", username);
+        body.put("suggestions", suggestions);
+        return noStore(Response.ok(body));
+    }
+
+    @GET
+    @Path("availability")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response availability(@QueryParam("username") String username) {
+        RealmModel realm = session.getContext().getRealm();
+        UsernamePolicy policy = registrationPolicy(realm);
+        if (policy == null || !policy.isAvailability()) {
+            throw new NotFoundException();
+        }
+        if (Validation.isBlank(username)) {
+            throw new BadRequestException();
+        }
+        Response limited = sessionRateLimit(policy, authSessionId(realm));
+        if (limited != null) {
+            return limited;
+        }
+
+        // checked as typed, the way the registration form checks it
+        FormMessage error = availability(realm, policy).check(Collections.singletonList(username), null).get(username);
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("username", username);
+        body.put("available", error == null);
+        if (error != null) {
+            body.put("message", localize(error));
+        }
+        return noStore(Response.ok(body));
+    }
+
+    @POST
+    @Path("revalidation")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response startRevalidation() {
+        RealmModel realm = session.getContext().getRealm();
+        userPermissions(realm).requireManage();
+        AuthenticatorConfigModel configModel = ExecutionConfigs.find(realm, realm.getRegistrationFlow(),
+                RegistrationUsername.PROVIDER_ID, RegistrationProfileUsername.PROVIDER_ID);
+        if (configModel == null) {
+            throw new NotFoundException();
+        }
+        RegistrationUsername registration = registration();
+        UsernameRevalidationJob job = UsernameRevalidationJob.start(session.getKeycloakSessionFactory(), realm,
+                registration.getPolicy(configModel), registration.getRules());
+        if (job == null) {
+            return noStore(Response.status(Response.Status.CONFLICT).entity(UsernameRevalidationJob.get(realm.getId()).toJson()));
+        }
+        return noStore(Response.accepted(job.toJson()));
+    }
+
+    @GET
+    @Path("revalidation")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response revalidation() {
+        RealmModel realm = session.getContext().getRealm();
+        userPermissions(realm).requireView();
+        return noStore(Response.ok(revalidationJob(realm).toJson()));
+    }
+
+    @DELETE
+    @Path("revalidation")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelRevalidation() {
+        RealmModel realm = session.getContext().getRealm();
+        userPermissions(realm).requireManage();
+        UsernameRevalidationJob job = revalidationJob(realm);
+        job.cancel();
+        return noStore(Response.ok(job.toJson()));
+    }
+
+    @GET
+    @Path("revalidation/report")
+    @Produces(REPORT_TYPE)
+    public Response revalidationReport() {
+        RealmModel realm = session.getContext().getRealm();
+        userPermissions(realm).requireView();
+        java.nio.file.Path report = revalidationJob(realm).getReport();
+        if (!Files.isReadable(report)) {
+            throw new NotFoundException();
+        }
+        StreamingOutput body = output -> Files.copy(report, output);
+        return Response.ok(body).type(REPORT_TYPE).cacheControl(noStoreCacheControl()).build();
+    }
+
+    @GET
+    @Path("metrics")
+    @Produces(METRICS_TYPE)
+    public Response metrics() {
+        RealmModel realm = session.getContext().getRealm();
+        // the metrics cover every realm, so they are only shown to admins of the admin realm
+        if (!Config.getAdminRealm().equals(realm.getName())) {
+            throw new NotFoundException();
+        }
+        adminPermissions(realm).realm().requireViewRealm();
+        InMemoryUsernameMetricsProviderFactory metrics = InMemoryUsernameMetricsProviderFactory.getInstance();
+        if (metrics == null) {
+            throw new NotFoundException();
+        }
+        return Response.ok(metrics.scrape()).type(METRICS_TYPE).cacheControl(noStoreCacheControl()).build();
+    }
+
+    private static UsernameRevalidationJob revalidationJob(RealmModel realm) {
+        UsernameRevalidationJob job = UsernameRevalidationJob.get(realm.getId());
+        if (job == null) {
+            throw new NotFoundException();
+        }
+        return job;
+    }
+
+    /**
+     * The user permissions of the realm admin calling with a bearer token.
+     */
+    private UserPermissionEvaluator userPermissions(RealmModel realm) {
+        return adminPermissions(realm).users();
+    }
+
+    /**
+     * The permissions of the realm admin calling with a bearer token.
+     */
+    private AdminPermissionEvaluator adminPermissions(RealmModel realm) {
+        AuthenticationManager.AuthResult auth = new AppAuthManager().authenticateBearerToken(session, realm);
+        if (auth == null) {
+            throw new NotAuthorizedException("Bearer");
+        }
+        ClientModel client = realm.getClientByClientId(auth.getToken().getIssuedFor());
+        return AdminPermissions.evaluator(session, realm, new AdminAuth(realm, auth.getToken(), auth.getUser(), client));
+    }
+
+    /**
+     * The ID of the browser's authentication session, which the registration page
+     * has. Calls without one, or with a cookie naming no session, are refused.
+     */
+    private String authSessionId(RealmModel realm) {
+        RootAuthenticationSessionModel authSession = new AuthenticationSessionManager(session).getCurrentRootAuthenticationSession(realm);
+        if (authSession == null) {
+            throw new ForbiddenException();
+        }
+        return authSession.getId();
+    }
+
+    /**
+     * The message text from the realm's login theme, in the user's language.
+     */
+    private String localize(FormMessage message) {
+        String text = message.getMessage();
+        try {
+            Locale locale = session.getContext().resolveLocale(null);
+            Properties messages = session.theme().getTheme(Theme.Type.LOGIN).getMessages(locale);
+            text = messages.getProperty(text, text);
+        } catch (IOException e) {
+            logger.warn("Failed to load login theme messages", e);
+        }
+        Object[] parameters = message.getParameters();
+        return parameters == null || parameters.length == 0 ? text : MessageFormat.format(text, parameters);
+    }
+
+    /**
+     * The config of the registration username execution, or null when the realm
+     * does not allow registration or the execution is missing or not configured.
+     */
+    private static AuthenticatorConfigModel registrationConfig(RealmModel realm) {
+        if (realm == null || !realm.isRegistrationAllowed()) {
+            return null;
+        }
+        return ExecutionConfigs.find(realm, realm.getRegistrationFlow(), RegistrationUsername.PROVIDER_ID, RegistrationProfileUsername.PROVIDER_ID);
+    }
+
+    /**
+     * The compiled config of the registration username execution, or null when
+     * {@link #registrationConfig(RealmModel)} finds none.
+     */
+    private UsernamePolicy registrationPolicy(RealmModel realm) {
+        AuthenticatorConfigModel configModel = registrationConfig(realm);
+        return configModel == null ? null : registration().getPolicy(configModel);
+    }
+
+    /**
+     * Counts the call against the limit per browser session and client IP; the
+     * answer to send when it is hit, otherwise null.
+     */
+    private Response sessionRateLimit(UsernamePolicy policy, String authSessionId) {
+        RequestRateLimiter rateLimiter = policy.getSessionRateLimiter();
+        if (rateLimiter == null || rateLimiter.acquire(session.getContext().getConnection().getRemoteAddr(), authSessionId) == null) {
+            return null;
+        }
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("error", localize(new FormMessage(null, rateLimiter.getMessage())));
+        return noStore(Response.status(429).entity(body));
+    }
+
+    /**
+     * Counts the call against the registration rate limits; the answer to send when
+     * a limit is hit, otherwise null.
+     */
+    private Response rateLimit(UsernamePolicy policy, String username) {
+        RequestRateLimiter rateLimiter = policy.getRateLimiter();
+        if (rateLimiter == null || rateLimiter.acquire(session.getContext().getConnection().getRemoteAddr(), username) == null) {
+            return null;
+        }
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("error", localize(new FormMessage(null, rateLimiter.getMessage())));
+        return noStore(Response.status(429).entity(body));
+    }
+
+    private RegistrationUsername registration() {
+        return (RegistrationUsername) session.getKeycloakSessionFactory().getProviderFactory(FormAction.class, RegistrationUsername.PROVIDER_ID);
+    }
+
+    private UsernameAvailability availability(RealmModel realm, UsernamePolicy policy) {
+        RegistrationUsername registration = registration();
+        return new UsernameAvailability(session, realm, policy, registration.getRules(), registration.getHookClient(), PROVIDER_ID);
+    }
+
+    private static Response noStore(Response.ResponseBuilder response) {
+        return response.type(MediaType.APPLICATION_JSON_TYPE).cacheControl(noStoreCacheControl()).build();
+    }
+
+    private static CacheControl noStoreCacheControl() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoStore(true);
+        return cacheControl;
+    }
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new UsernameRealmResourceProviderFactory(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        TakenUsernameCache.configure(config.getLong("takenCacheTtl", 60L), config.getInt("takenCacheSize", 10000));
+        UsernameRevalidationJob.configure(config.get("revalidationReportDir"), config.getInt("revalidationPageSize", 1000),
+                config.getInt("revalidationThreads", 0));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+
+    }
+
+    @Override
+    public void close() {
+        if (session == null) {
+            UsernameRevalidationJob.cancelAll();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,194 @@
+package com.phy25.keycloak.registration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * A background check of all users of a realm against its current username
+ * policy, started by a realm admin through the registration-username endpoint.
+ * One job runs per realm and node. Users are read a page at a time, each page in
+ * its own transaction, and checked with {@link UsernamePolicyAudit}; violations
+ * go to a JSON lines report in the report directory. Only the latest job of a
+ * realm is remembered, older reports stay on disk.
+ */
+public class UsernameRevalidationJob {
+
+    private static final Logger logger = Logger.getLogger(UsernameRevalidationJob.class);
+
+    public enum State {
+        RUNNING, FINISHED, CANCELLED, FAILED
+    }
+
+    private static final ConcurrentMap<String, UsernameRevalidationJob> JOBS = new ConcurrentHashMap<String, UsernameRevalidationJob>();
+
+    private static volatile Path reportDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private static volatile int pageSize = 1000;
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final UsernamePolicy policy;
+    private final UsernameRulePipeline rules;
+    private final int usersPerPage = pageSize;
+    private final ForkJoinPool checkers = pool;
+    private final Path report;
+    private final long started = System.currentTimeMillis();
+    private final Thread thread;
+
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelled;
+    private volatile UsernamePolicyAudit audit;
+    private volatile long finished;
+    private volatile String error;
+
+    // paging position, only touched by the job thread
+    private String after;
+    private int first;
+    private int lastPageSize;
+
+    private UsernameRevalidationJob(KeycloakSessionFactory sessionFactory, RealmModel realm, UsernamePolicy policy,
+                                    UsernameRulePipeline rules) {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realm.getId();
+        this.policy = policy;
+        this.rules = rules;
+        this.report = reportDirectory.resolve("username-revalidation-" + realm.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "-" + started + ".jsonl");
+        this.thread = new Thread(this::run, "username-revalidation-" + realm.getName());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Sets where reports are written, users read per page, and the threads checking
+     * a page; threads 0 uses the common fork/join pool.
+     */
+    static void configure(String directory, int usersPerPage, int threads) {
+        if (directory != null && !directory.trim().isEmpty()) {
+            reportDirectory = Paths.get(directory.trim());
+        }
+        pageSize = Math.max(1, usersPerPage);
+        pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Starts checking the realm's users against the compiled config, or returns
+     * null when a job is already running for the realm. The job keeps checking
+     * against that config if it is changed meanwhile.
+     */
+    public static UsernameRevalidationJob start(KeycloakSessionFactory sessionFactory, RealmModel realm, UsernamePolicy policy,
+                                                UsernameRulePipeline rules) {
+        UsernameRevalidationJob previous = JOBS.get(realm.getId());
+        if (previous != null && previous.state == State.RUNNING) {
+            return null;
+        }
+        UsernameRevalidationJob job = new UsernameRevalidationJob(sessionFactory, realm, policy, rules);
+        boolean claimed = previous == null ? JOBS.putIfAbsent(realm.getId(), job) == null : JOBS.replace(realm.getId(), previous, job);
+        if (!claimed) {
+            return null;
+        }
+        job.thread.start();
+        return job;
+    }
+
+    /**
+     * The latest job of the realm on this node, or null.
+     */
+    public static UsernameRevalidationJob get(String realmId) {
+        return JOBS.get(realmId);
+    }
+
+    /**
+     * Cancels the running jobs, for shutdown.
+     */
+    static void cancelAll() {
+        for (UsernameRevalidationJob job : JOBS.values()) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Stops the job after the page being checked.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Path getReport() {
+        return report;
+    }
+
+    public Map<String, Object> toJson() {
+        UsernamePolicyAudit current = audit;
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("state", state.name());
+        json.put("started", Instant.ofEpochMilli(started).toString());
+        if (finished > 0) {
+            json.put("finished", Instant.ofEpochMilli(finished).toString());
+        }
+        json.put("checked", current == null ? 0 : current.getChecked());
+        json.put("violations", current == null ? 0 : current.getViolations());
+        json.put("report", report.toString());
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+
+    private void run() {
+        try {
+            Files.createDirectories(report.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+                audit = new UsernamePolicyAudit(rules, policy, checkers, writer);
+                do {
+                    KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                        RealmModel realm = session.realms().getRealm(realmId);
+                        if (realm == null) {
+                            lastPageSize = 0;
+                            return;
+                        }
+                        List<UsernamePolicyAudit.Account> page = UserStoreQueries.userPage(session, realm, after, first, usersPerPage);
+                        try {
+                            audit.checkPage(session, realm, page);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        lastPageSize = page.size();
+                        first += page.size();
+                        if (!page.isEmpty()) {
+                            after = page.get(page.size() - 1).getUsername();
+                        }
+                    });
+                } while (lastPageSize == usersPerPage && !cancelled);
+            }
+            finished = System.currentTimeMillis();
+            state = cancelled ? State.CANCELLED : State.FINISHED;
+            logger.infof("Username revalidation of realm %s %s: %d users checked, %d violations, report %s",
+                    realmId, state.name().toLowerCase(), audit.getChecked(), audit.getViolations(), report);
+        } catch (IOException | RuntimeException e) {
+            logger.errorf(e, "Username revalidation of realm %s failed", realmId);
+            error = e.getMessage();
+            finished = System.currentTimeMillis();
+            state = State.FAILED;
+        }
+    }
+}
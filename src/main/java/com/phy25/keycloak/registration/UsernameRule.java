@@ -0,0 +1,22 @@
+package com.phy25.keycloak.registration;
+
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.Provider;
+
+/**
+ * One local check of a candidate username. Rules run in the order of their
+ * factories, cheapest first, before the username hook is called. A rule takes
+ * its settings from the execution config, preferably as compiled by its
+ * factory, and passes when it is not configured.
+ */
+public interface UsernameRule extends Provider {
+
+    /**
+     * Returns the error for the username field, or null when the username passes.
+     */
+    FormMessage check(UsernameRuleContext context);
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,65 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * The candidate username and what the rules may need to check it.
+ */
+public class UsernameRuleContext {
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final UsernamePolicy policy;
+    private final String username;
+    private final String email;
+
+    public UsernameRuleContext(KeycloakSession session, RealmModel realm, UsernamePolicy policy, String username, String email) {
+        this.session = session;
+        this.realm = realm;
+        this.policy = policy;
+        this.username = username;
+        this.email = email;
+    }
+
+    public KeycloakSession getSession() {
+        return session;
+    }
+
+    public RealmModel getRealm() {
+        return realm;
+    }
+
+    /**
+     * ID of the execution config, for caching values derived from it. Null when the execution has no config.
+     */
+    public String getConfigId() {
+        return policy.getConfigId();
+    }
+
+    public Map<String, String> getConfig() {
+        return policy.getConfig();
+    }
+
+    /**
+     * What the rule with the given id compiled from the config through
+     * {@link UsernameRuleFactory#compile(String, Map)}, or null.
+     */
+    public <T> T getCompiled(String ruleId) {
+        return policy.getCompiledRule(ruleId);
+    }
+
+    public UsernamePolicy getPolicy() {
+        return policy;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
@@ -0,0 +1,30 @@
+package com.phy25.keycloak.registration;
+
+import java.util.Map;
+
+import org.keycloak.provider.ConfiguredProvider;
+import org.keycloak.provider.ProviderFactory;
+
+/**
+ * Factory of a username rule. The id is also the name the rule's latency is
+ * reported under, and the config properties are added to the
+ * registration-username-action execution config.
+ */
+public interface UsernameRuleFactory extends ProviderFactory<UsernameRule>, ConfiguredProvider {
+
+    /**
+     * Position in the pipeline, lower runs first. The built-in rules use
+     * length 100, blocklist 200, blocklist file 300, regex 400 and profanity 500.
+     */
+    int getOrder();
+
+    /**
+     * Derives what the rule needs from an execution config, once per config
+     * version; rules find it through {@link UsernameRuleContext#getCompiled(String)}.
+     * The config is unmodifiable. Returns null when the rule is not configured;
+     * the default compiles nothing, for rules that read the config as they go.
+     */
+    default Object compile(String configId, Map<String, String> config) {
+        return null;
+    }
+}
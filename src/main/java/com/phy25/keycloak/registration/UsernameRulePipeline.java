@@ -0,0 +1,118 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.FormMessage;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderFactory;
+
+/**
+ * The username rules of the deployment, ordered cheapest first. Rules are created
+ * from their factories on each check, the way Keycloak creates form actions, so
+ * they should be stateless or cheap to create.
+ */
+public class UsernameRulePipeline {
+
+    private static final Logger logger = Logger.getLogger(UsernameRulePipeline.class);
+
+    private final List<UsernameRuleFactory> factories;
+
+    private UsernameRulePipeline(List<UsernameRuleFactory> factories) {
+        List<UsernameRuleFactory> sorted = new ArrayList<UsernameRuleFactory>(factories);
+        sorted.sort(Comparator.comparingInt(UsernameRuleFactory::getOrder));
+        this.factories = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * The built-in rules, for use before the provider factories are known.
+     */
+    public static UsernameRulePipeline builtIn() {
+        return new UsernameRulePipeline(Arrays.<UsernameRuleFactory>asList(
+                new LengthUsernameRule(),
+                new BlocklistUsernameRule(),
+                new BlocklistFileUsernameRule(),
+                new RegexUsernameRule(),
+                new ProfanityUsernameRule()));
+    }
+
+    /**
+     * Every rule deployed through the username-rule SPI, or the built-in rules when
+     * the SPI is not registered, as with a jar hot-deployed to Keycloak 8.
+     */
+    public static UsernameRulePipeline load(KeycloakSessionFactory sessionFactory) {
+        List<UsernameRuleFactory> factories = new ArrayList<UsernameRuleFactory>();
+        for (ProviderFactory<?> factory : sessionFactory.getProviderFactories(UsernameRule.class)) {
+            factories.add((UsernameRuleFactory) factory);
+        }
+        if (factories.isEmpty()) {
+            logger.warn("No username-rule providers registered, running the built-in username rules only. "
+                    + "Deploy the jar as a module for custom rules to be loaded");
+            return builtIn();
+        }
+        return new UsernameRulePipeline(factories);
+    }
+
+    public List<UsernameRuleFactory> getFactories() {
+        return factories;
+    }
+
+    /**
+     * The config properties of all rules, to be shown with the execution config.
+     */
+    public List<ProviderConfigProperty> getConfigProperties() {
+        List<ProviderConfigProperty> properties = new ArrayList<ProviderConfigProperty>();
+        for (UsernameRuleFactory factory : factories) {
+            List<ProviderConfigProperty> ruleProperties = factory.getConfigProperties();
+            if (ruleProperties != null) {
+                properties.addAll(ruleProperties);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * What each rule compiles from the config, by rule id. Rules that compile
+     * nothing are left out.
+     */
+    public Map<String, Object> compile(String configId, Map<String, String> config) {
+        Map<String, Object> compiled = new HashMap<String, Object>();
+        for (UsernameRuleFactory factory : factories) {
+            Object rule = factory.compile(configId, config);
+            if (rule != null) {
+                compiled.put(factory.getId(), rule);
+            }
+        }
+        return Collections.unmodifiableMap(compiled);
+    }
+
+    /**
+     * Runs the rules in order and returns their errors, stopping at the first one
+     * when shortCircuit is set. Each rule's latency is reported under its id.
+     */
+    public List<FormMessage> check(UsernameRuleContext context, boolean shortCircuit, UsernameMetricsProvider metrics, String action) {
+        List<FormMessage> errors = null;
+        for (UsernameRuleFactory factory : factories) {
+            long started = System.nanoTime();
+            FormMessage error = factory.create(context.getSession()).check(context);
+            metrics.recordCheck(action, factory.getId(), System.nanoTime() - started);
+            if (error != null) {
+                if (errors == null) {
+                    errors = new ArrayList<FormMessage>(2);
+                }
+                errors.add(error);
+                if (shortCircuit) {
+                    break;
+                }
+            }
+        }
+        return errors == null ? Collections.<FormMessage>emptyList() : errors;
+    }
+}
@@ -0,0 +1,128 @@
+package com.phy25.keycloak.registration;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reduces a username to a skeleton in the spirit of UTS #39, so that names which
+ * look alike compare equal. {@link #fold(String)} turns a name into plain lower
+ * case Latin where it only pretends not to be: NFKC, full case folding, accents
+ * and invisible format characters dropped, and Cyrillic, Greek and IPA lookalikes
+ * mapped to the letter they imitate, so "admin" spelled with a Cyrillic a and
+ * "ADMIN" spelled with a dotted capital I both fold to "admin". {@link #of(String)} additionally merges the ASCII
+ * characters that are mistaken for each other (0 and o; 1, l and i; rn and m).
+ *
+ * The table is a curated subset of the Unicode confusables data covering the
+ * characters that imitate ASCII letters. ASCII names skip normalization.
+ */
+public final class UsernameSkeleton {
+
+    private static final char[] FROM;
+    private static final char[] TO;
+
+    static {
+        String[] pairs = {
+                // Cyrillic, lower case (upper case folds to these first)
+                "\u0430a", "\u0432b", "\u0435e", "\u0451e", "\u0456i", "\u0457i", "\u0458j", "\u043ak", "\u043cm",
+                "\u043dh", "\u043eo", "\u0440p", "\u0441c", "\u0442t", "\u0443y", "\u0445x", "\u0455s", "\u0501d",
+                "\u04bbh", "\u051bq", "\u051dw", "\u04cfl",
+                // Greek
+                "\u03b1a", "\u03b2b", "\u03b5e", "\u03b6z", "\u03b7n", "\u03b9i", "\u03bak", "\u03bcu", "\u03bdv",
+                "\u03bfo", "\u03c1p", "\u03c4t", "\u03c5u", "\u03c7x", "\u03b3y", "\u03c9w",
+                // Latin and IPA lookalikes
+                "\u0131i", "\u0251a", "\u0261g", "\u0269i", "\u026ai", "\u0280r", "\u028fy", "\u1d00a", "\u1d04c",
+                "\u1d05d", "\u1d07e", "\u1d0bk", "\u1d0fo", "\u1d18p", "\u1d1bt", "\u1d1cu", "\u1d20v", "\u1d21w",
+                "\u1d22z",
+        };
+        Arrays.sort(pairs);
+        FROM = new char[pairs.length];
+        TO = new char[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            FROM[i] = pairs[i].charAt(0);
+            TO[i] = pairs[i].charAt(1);
+        }
+    }
+
+    private UsernameSkeleton() {
+    }
+
+    /**
+     * The skeleton used for blocklist matching; entries and candidates must both go through it.
+     */
+    public static String of(String username) {
+        String folded = fold(username);
+        int length = folded.length();
+        StringBuilder skeleton = null;
+        for (int i = 0; i < length; i++) {
+            char c = folded.charAt(i);
+            char mapped = c;
+            switch (c) {
+                case '0':
+                    mapped = 'o';
+                    break;
+                case '1':
+                case 'l':
+                case '|':
+                case '!':
+                    mapped = 'i';
+                    break;
+                case 'r':
+                    if (i + 1 < length && folded.charAt(i + 1) == 'n') {
+                        mapped = 'm';
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (mapped != c && skeleton == null) {
+                skeleton = new StringBuilder(length).append(folded, 0, i);
+            }
+            if (skeleton != null) {
+                skeleton.append(mapped);
+                if (mapped == 'm' && c == 'r') {
+                    i++;
+                }
+            }
+        }
+        return skeleton == null ? folded : skeleton.toString();
+    }
+
+    /**
+     * Lower case with lookalikes from other scripts, compatibility forms and
+     * accents reduced to plain Latin. ASCII is only lower cased.
+     */
+    public static String fold(String username) {
+        int length = username.length();
+        for (int i = 0; i < length; i++) {
+            if (username.charAt(i) >= 0x80) {
+                return foldUnicode(username);
+            }
+        }
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static String foldUnicode(String username) {
+        String folded = Normalizer.normalize(username, Normalizer.Form.NFKC);
+        // upper then lower approximates full case folding (sharp s to ss, final sigma, dotted capital I)
+        folded = folded.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        folded = Normalizer.normalize(folded, Normalizer.Form.NFD);
+        int length = folded.length();
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            char c = folded.charAt(i);
+            if (c >= 0x80) {
+                int type = Character.getType(c);
+                if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.FORMAT) {
+                    continue;
+                }
+                int mapped = Arrays.binarySearch(FROM, c);
+                if (mapped >= 0) {
+                    c = TO[mapped];
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
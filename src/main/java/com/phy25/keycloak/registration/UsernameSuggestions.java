@@ -0,0 +1,48 @@
+package com.phy25.keycloak.registration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates alternatives for a username that is taken: the email's local part,
+ * then the name without its trailing digits followed by short random numbers, as
+ * in "jdoe7", "jdoe_42" and "jdoe.815". Both keep the case they were typed in, so
+ * the username rules judge them as they would on the registration form. Generated
+ * names still have to be checked.
+ */
+public class UsernameSuggestions {
+
+    private static final String[] SEPARATORS = {"", "", "_", "."};
+
+    private UsernameSuggestions() {
+    }
+
+    public static List<String> candidates(String username, String email, int count) {
+        Set<String> candidates = new LinkedHashSet<String>();
+        String name = username.trim();
+        if (email != null) {
+            int at = email.indexOf('@');
+            if (at > 0) {
+                candidates.add(email.substring(0, at).trim());
+            }
+        }
+        int end = name.length();
+        while (end > 0 && Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        String base = end > 0 ? name.substring(0, end) : name;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // short numbers first, longer ones once those are likely taken
+        for (int attempt = 0; candidates.size() < count && attempt < count * 4; attempt++) {
+            int bound = attempt < count ? 100 : attempt < count * 2 ? 1000 : 10000;
+            String separator = SEPARATORS[random.nextInt(SEPARATORS.length)];
+            candidates.add(base + separator + (1 + random.nextInt(bound - 1)));
+        }
+        candidates.remove(name);
+        List<String> result = new ArrayList<String>(candidates);
+        return result.size() > count ? result.subList(0, count) : result;
+    }
+}
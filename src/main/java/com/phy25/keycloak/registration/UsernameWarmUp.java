@@ -0,0 +1,99 @@
+package com.phy25.keycloak.registration;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+
+/**
+ * Optional warm-up of a provider at startup, so the first requests after a
+ * restart do not pay for compiling the execution configs, connecting to the
+ * hook and JIT compilation all at once. It runs when Keycloak has migrated and
+ * imported its realms, before the server accepts requests, and walks the
+ * executions of every realm. Enabled with the provider
+ * option warmUp; warmUpIterations sets how often the rules are run on sample
+ * usernames (default 1000) and warmUpConnections how many hook connections are
+ * opened per hook host (default 4). The hook itself is never called.
+ */
+public class UsernameWarmUp {
+
+    private static final Logger logger = Logger.getLogger(UsernameWarmUp.class);
+
+    // plain, dotted, short, long, reserved-looking, non-Latin and lookalike names
+    private static final String[] SAMPLE_USERNAMES = {
+            "jdoe", "john.doe_1987", "a", "averyveryverylongusernamethatkeepsgoing-42", "admin",
+            "ma\u00efa-\u00e9l\u00e8ve", "\u0430dmin", "r00t", "jane@example.com"
+    };
+
+    private final boolean enabled;
+    private final int iterations;
+    private final int connections;
+
+    private UsernameWarmUp(boolean enabled, int iterations, int connections) {
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.connections = connections;
+    }
+
+    public static UsernameWarmUp create(Config.Scope config) {
+        return new UsernameWarmUp(config.getBoolean("warmUp", false),
+                Math.max(0, config.getInt("warmUpIterations", 1000)),
+                Math.max(0, config.getInt("warmUpConnections", 4)));
+    }
+
+    /**
+     * Runs the task for each realm, in a transaction, once Keycloak has started.
+     * A failing warm-up is logged and does not stop the server.
+     */
+    public void onStartup(KeycloakSessionFactory factory, String providerId, RealmTask task) {
+        if (!enabled) {
+            return;
+        }
+        factory.register(event -> {
+            if (!(event instanceof PostMigrationEvent)) {
+                return;
+            }
+            long started = System.currentTimeMillis();
+            try {
+                KeycloakModelUtils.runJobInTransaction(factory, session -> {
+                    for (RealmModel realm : session.realms().getRealms()) {
+                        task.run(session, realm);
+                    }
+                });
+                logger.infof("Warmed up %s in %d ms", providerId, System.currentTimeMillis() - started);
+            } catch (RuntimeException e) {
+                logger.warnf(e, "Warm-up of %s failed", providerId);
+            }
+        });
+    }
+
+    /**
+     * Runs the username rules of the compiled config on the sample usernames.
+     */
+    public void checkRules(KeycloakSession session, RealmModel realm, UsernamePolicy policy, UsernameRulePipeline rules) {
+        for (int i = 0; i < iterations; i++) {
+            for (String username : SAMPLE_USERNAMES) {
+                UsernameRuleContext context = new UsernameRuleContext(session, realm, policy, username, null);
+                rules.check(context, false, UsernameMetricsProvider.NOOP, "warm-up");
+            }
+        }
+    }
+
+    /**
+     * Opens connections to the host of a compiled config's hook, if it has one.
+     */
+    public void prepareHook(HookHttpClient client, HookSettings hook) {
+        if (hook == null || client == null || connections <= 0) {
+            return;
+        }
+        int opened = client.preconnect(hook.getUrl(), connections);
+        logger.debugf("Opened %d connections to hook %s", opened, hook.getUrl());
+    }
+
+    public interface RealmTask {
+        void run(KeycloakSession session, RealmModel realm);
+    }
+}
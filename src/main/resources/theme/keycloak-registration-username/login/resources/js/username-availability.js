@@ -0,0 +1,80 @@
+/*
+ * Checks the username on the registration page while it is typed, through the
+ * registration-username availability endpoint. Requests are debounced and a
+ * pending request is dropped when the username changes again. Does nothing when
+ * the endpoint is not enabled for the realm.
+ */
+(function () {
+    var DEBOUNCE_MILLIS = 300;
+
+    function init() {
+        var form = document.getElementById('kc-register-form');
+        var input = document.getElementById('username');
+        if (!form || !input || form.action.indexOf('/login-actions/') < 0) {
+            return;
+        }
+        var endpoint = form.action.substring(0, form.action.indexOf('/login-actions/')) + '/registration-username/availability';
+        var status = document.createElement('span');
+        status.id = 'username-availability';
+        status.className = 'kc-feedback-text';
+        status.setAttribute('aria-live', 'polite');
+        input.parentNode.appendChild(status);
+
+        var timer = null;
+        var request = null;
+        var checked = {};
+
+        function show(result) {
+            status.textContent = result.available ? '' : (result.message || result.error || '');
+        }
+
+        function check() {
+            var username = input.value.trim();
+            if (request) {
+                request.abort();
+                request = null;
+            }
+            if (!username) {
+                status.textContent = '';
+                return;
+            }
+            if (checked.hasOwnProperty(username)) {
+                show(checked[username]);
+                return;
+            }
+            var xhr = new XMLHttpRequest();
+            xhr.open('GET', endpoint + '?username=' + encodeURIComponent(username));
+            xhr.setRequestHeader('Accept', 'application/json');
+            xhr.onload = function () {
+                request = null;
+                if (xhr.status === 404) {
+                    input.removeEventListener('input', schedule);
+                    return;
+                }
+                if (xhr.status !== 200 && xhr.status !== 429) {
+                    return;
+                }
+                var result = JSON.parse(xhr.responseText);
+                if (xhr.status === 200) {
+                    checked[username] = result;
+                }
+                show(result);
+            };
+            request = xhr;
+            xhr.send();
+        }
+
+        function schedule() {
+            clearTimeout(timer);
+            timer = setTimeout(check, DEBOUNCE_MILLIS);
+        }
+
+        input.addEventListener('input', schedule);
+    }
+
+    if (document.readyState === 'loading') {
+        document.addEventListener('DOMContentLoaded', init);
+    } else {
+        init();
+    }
+})();
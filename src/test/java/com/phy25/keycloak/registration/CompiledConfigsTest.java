@@ -0,0 +1,55 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CompiledConfigsTest {
+
+    private final AtomicInteger compilations = new AtomicInteger();
+    private final CompiledConfigs<Map<String, String>> configs = new CompiledConfigs<Map<String, String>>((id, config) -> {
+        compilations.incrementAndGet();
+        return config;
+    });
+
+    @Test
+    public void configIsCompiledOncePerVersion() {
+        Map<String, String> config = new HashMap<String, String>(Collections.singletonMap("a", "1"));
+        Map<String, String> first = configs.get("config", config);
+        assertSame(first, configs.get("config", config));
+        assertSame(first, configs.get("config", new HashMap<String, String>(config)));
+        assertEquals(1, compilations.get());
+
+        config = Collections.singletonMap("a", "2");
+        assertEquals("2", configs.get("config", config).get("a"));
+        assertEquals(2, compilations.get());
+
+        configs.invalidate("config");
+        configs.get("config", config);
+        assertEquals(3, compilations.get());
+    }
+
+    @Test
+    public void configsWithoutIdAreNotShared() {
+        Map<String, String> a = configs.get(null, Collections.singletonMap("a", "1"));
+        Map<String, String> b = configs.get(null, Collections.singletonMap("a", "2"));
+        assertEquals("1", a.get("a"));
+        assertEquals("2", b.get("a"));
+        assertNotSame(a, configs.get(null, Collections.singletonMap("a", "1")));
+    }
+
+    @Test
+    public void unconfiguredExecutionsCompileEmptyConfigOnce() {
+        Map<String, String> empty = configs.get(null);
+        assertEquals(Collections.emptyMap(), empty);
+        assertSame(empty, configs.get(null, Collections.<String, String>emptyMap()));
+        assertEquals(1, compilations.get());
+    }
+}
@@ -0,0 +1,139 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.Config;
+
+public class HookAuditLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ringIsFifoAndRejectsWhenFull() {
+        HookAuditLog.Ring<Integer> ring = new HookAuditLog.Ring<Integer>(4);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(round * 10 + i));
+            }
+            assertFalse(ring.offer(-1));
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(round * 10 + i), ring.poll());
+            }
+            assertNull(ring.poll());
+        }
+    }
+
+    @Test
+    public void concurrentProducersLoseNothingButWhatWasRejected() throws Exception {
+        HookAuditLog.Ring<Integer> ring = new HookAuditLog.Ring<Integer>(64);
+        int producers = 4;
+        int perProducer = 100000;
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger rejected = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        if (!ring.offer(producer * perProducer + i)) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            // each producer's values must come out in the order it offered them
+            int[] last = new int[producers];
+            Arrays.fill(last, -1);
+            int received = 0;
+            boolean producing = true;
+            while (true) {
+                Integer value = ring.poll();
+                if (value == null) {
+                    if (!producing) {
+                        break;
+                    }
+                    producing = false;
+                    for (Future<?> future : futures) {
+                        producing |= !future.isDone();
+                    }
+                    continue;
+                }
+                int producer = value / perProducer;
+                int sequence = value % perProducer;
+                assertTrue(sequence > last[producer]);
+                last[producer] = sequence;
+                received++;
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            assertNull(ring.poll());
+            assertEquals(producers * perProducer, received + rejected.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void droppedEventsAreCountedAndReported() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("audit.log");
+        System.setProperty("hook-audit-test.auditLogFile", file.toString());
+        System.setProperty("hook-audit-test.auditLogBufferSize", "16");
+        long droppedBefore = HookAuditLog.getDropped();
+        int events = 5000;
+        HookAuditLog.start(new Config.SystemPropertiesScope("hook-audit-test."));
+        try {
+            for (int i = 0; i < events; i++) {
+                HookAuditLog.record("action", "realm", "registration", "user" + i, HookVerdict.CLEARED, 1000);
+            }
+        } finally {
+            HookAuditLog.close();
+            System.clearProperty("hook-audit-test.auditLogFile");
+            System.clearProperty("hook-audit-test.auditLogBufferSize");
+        }
+
+        long dropped = HookAuditLog.getDropped() - droppedBefore;
+        assertTrue(dropped > 0);
+        int written = 0;
+        long reported = 0;
+        Pattern droppedLine = Pattern.compile("\"dropped\":(\\d+)");
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher matcher = droppedLine.matcher(line);
+            if (matcher.find()) {
+                reported += Long.parseLong(matcher.group(1));
+            } else {
+                written++;
+            }
+        }
+        assertEquals(dropped, reported);
+        assertEquals(events, written + dropped);
+    }
+}
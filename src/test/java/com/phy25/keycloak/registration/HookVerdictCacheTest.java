@@ -0,0 +1,38 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HookVerdictCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void ttlHintCannotEnableDisabledCaching() {
+        HookVerdictCache cache = new HookVerdictCache("config", 0, HOUR, 0, 100);
+        cache.put("a", new HookVerdict(UsernameHook.Result.MATCHED, null, 300));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void ttlHintShortensConfiguredTtl() {
+        HookVerdictCache cache = new HookVerdictCache("config", HOUR, HOUR, 0, 100);
+        cache.put("a", new HookVerdict(UsernameHook.Result.MATCHED, null, 0));
+        cache.put("b", new HookVerdict(UsernameHook.Result.MATCHED, null, 60));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void hugeTtlDoesNotOverflow() {
+        HookVerdictCache cache = new HookVerdictCache("config", Long.MAX_VALUE, 0, 0, 100);
+        cache.put("a", new HookVerdict(UsernameHook.Result.MATCHED, null, Long.MAX_VALUE));
+        cache.put("b", new HookVerdict(UsernameHook.Result.MATCHED, null, -1));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+}
@@ -0,0 +1,31 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InMemoryUsernameMetricsProviderFactoryTest {
+
+    @Test
+    public void labelValuesAreEscaped() {
+        InMemoryUsernameMetricsProviderFactory metrics = new InMemoryUsernameMetricsProviderFactory();
+        metrics.recordRejection("registration", "Say \"slow\"\nC:\\down");
+        String scrape = metrics.scrape();
+        assertTrue(scrape, scrape.contains("username_rejections_total{action=\"registration\",message=\"Say \\\"slow\\\"\\nC:\\\\down\"} 1\n"));
+    }
+
+    @Test
+    public void maxIsSeparateGauge() {
+        InMemoryUsernameMetricsProviderFactory metrics = new InMemoryUsernameMetricsProviderFactory();
+        metrics.recordCheck("registration", "regex", 2000000000L);
+        metrics.recordCheck("registration", "regex", 1000000000L);
+        String scrape = metrics.scrape();
+        int summary = scrape.indexOf("# TYPE username_check_seconds summary\n");
+        int gauge = scrape.indexOf("# TYPE username_check_seconds_max gauge\n");
+        int max = scrape.indexOf("username_check_seconds_max{action=\"registration\",check=\"regex\"} 2.0\n");
+        assertTrue(scrape, summary >= 0 && gauge > summary && max > gauge);
+        assertTrue(scrape, scrape.contains("username_check_seconds_count{action=\"registration\",check=\"regex\"} 2\n"));
+        assertFalse(scrape, scrape.substring(summary, gauge).contains("_max"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class InvalidUsernameIndexTest {
+
+    @Test
+    public void matchesExactEntries() {
+        InvalidUsernameIndex index = InvalidUsernameIndex.parse(" Admin , root,,");
+        assertEquals(2, index.size());
+        assertTrue(index.matches("admin"));
+        assertTrue(index.matches("ROOT"));
+        assertFalse(index.matches("admins"));
+        assertFalse(index.matches("adm"));
+        assertFalse(index.matches(null));
+    }
+
+    @Test
+    public void matchesPrefixEntries() {
+        InvalidUsernameIndex index = InvalidUsernameIndex.parse("admin*,adm*");
+        assertTrue(index.matches("admin"));
+        assertTrue(index.matches("administrator"));
+        assertTrue(index.matches("ADMx"));
+        assertFalse(index.matches("ad"));
+        assertFalse(index.matches("sysadmin"));
+    }
+
+    @Test
+    public void matchesSuffixEntries() {
+        InvalidUsernameIndex index = InvalidUsernameIndex.parse("*bot");
+        assertTrue(index.matches("bot"));
+        assertTrue(index.matches("ChatBot"));
+        assertFalse(index.matches("bots"));
+        assertFalse(index.matches("ot"));
+    }
+
+    @Test
+    public void doesNotMatchSubstrings() {
+        InvalidUsernameIndex index = InvalidUsernameIndex.parse("admin,root*,*bot");
+        assertFalse(index.matches("xadminx"));
+        assertFalse(index.matches("xroot"));
+        assertFalse(index.matches("botx"));
+        assertTrue(index.matches("rootbot"));
+    }
+
+    @Test
+    public void ignoresUnsupportedWildcards() {
+        InvalidUsernameIndex index = InvalidUsernameIndex.parse("*,**,*admin*,ad*min,support");
+        assertEquals(1, index.size());
+        assertFalse(index.matches("admin"));
+        assertFalse(index.matches("anything"));
+        assertTrue(index.matches("support"));
+    }
+
+    @Test
+    public void foldsIndependentlyOfDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            InvalidUsernameIndex index = InvalidUsernameIndex.parse("ADMIN,I*");
+            assertTrue(index.matches("admin"));
+            assertTrue(index.matches("Admin"));
+            assertTrue(index.matches("id"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
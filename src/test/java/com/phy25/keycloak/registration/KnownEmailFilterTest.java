@@ -0,0 +1,53 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.storage.UserStorageProvider;
+
+public class KnownEmailFilterTest {
+
+    private static RealmModel realm(List<ComponentModel> storage) {
+        return (RealmModel) Proxy.newProxyInstance(RealmModel.class.getClassLoader(), new Class<?>[] {RealmModel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return "realm";
+                        case "getComponents":
+                            return UserStorageProvider.class.getName().equals(args[1]) ? storage : Collections.emptyList();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static ComponentModel ldap(String importEnabled) {
+        ComponentModel component = new ComponentModel();
+        component.setProviderId("ldap");
+        component.setProviderType(UserStorageProvider.class.getName());
+        component.getConfig().putSingle("importEnabled", importEnabled);
+        return component;
+    }
+
+    @Test
+    public void realmWithoutFederationUsesFilter() {
+        assertFalse(KnownEmailFilter.hasUserStorage(realm(Collections.<ComponentModel>emptyList())));
+    }
+
+    @Test
+    public void importingFederationDisablesFilter() {
+        assertTrue(KnownEmailFilter.hasUserStorage(realm(Collections.singletonList(ldap("true")))));
+    }
+
+    @Test
+    public void nonImportingFederationDisablesFilter() {
+        assertTrue(KnownEmailFilter.hasUserStorage(realm(Collections.singletonList(ldap("false")))));
+    }
+}
@@ -0,0 +1,196 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link LinearPattern} with java.util.regex on the constructs it
+ * supports, and checks that the others are rejected.
+ */
+public class LinearPatternTest {
+
+    private static final String[] SUPPORTED = {
+            "",
+            "abc",
+            "a.c",
+            ".*",
+            "[a-z0-9_.-]{3,16}",
+            "[^a-z]+",
+            "[a-zA-Z][a-zA-Z0-9]*",
+            "^[a-z]+$",
+            "\\d+",
+            "\\D*",
+            "\\w+",
+            "\\W?",
+            "\\s*\\S+\\s*",
+            "[\\w.]+",
+            "[^\\s]+",
+            "a|b|",
+            "(ab|a)(c|bcd)",
+            "(?:ab)+",
+            "(?<name>a+)b",
+            "a*?b",
+            "a+?",
+            "a??b",
+            "a{2}",
+            "a{2,}",
+            "a{1,3}b{0,2}",
+            "(a{1,3}?b)*",
+            "(a|b)*abb",
+            "(a*)*",
+            "(a|a)*",
+            "(a?){5}a{5}",
+            "\\.\\-\\_\\*",
+            "[\\]a]",
+            "[-a]",
+            "[a-]",
+            "[.]",
+            "a\\tb",
+            "\\x41\\x{42}\\u0043",
+            "\\0101",
+            "\\u00e9+",
+            "[\\u00e0-\\u00ff]+",
+            "\\x{1F600}",
+            "[\\x{1F600}-\\x{1F64F}]a",
+            "[^a]",
+            ".",
+            "a\\.b",
+            "(?:[a-z]+[._-])*[a-z]+",
+    };
+
+    private static final String[] UNSUPPORTED = {
+            "(a)\\1",
+            "(?<name>a)\\k<name>",
+            "(?=a)a",
+            "(?!a)b",
+            "(?<=a)b",
+            "(?<!a)b",
+            "(?>a+)",
+            "(?i)abc",
+            "a(?i:b)",
+            "\\ba\\b",
+            "\\Ba",
+            "\\Aa\\z",
+            "a\\Z",
+            "\\Ga",
+            "a++",
+            "a*+",
+            "\\p{L}+",
+            "\\P{L}",
+            "[a-z&&[^b]]",
+            "[a[b]]",
+            "a^b",
+            "a$b",
+    };
+
+    private static final String[] INVALID = {
+            "(",
+            "a)",
+            "[a",
+            "*a",
+            "a{2",
+            "a{3,2}",
+            "\\",
+            "\\x{110000}",
+            "[z-a]",
+    };
+
+    private static final String[] ALPHABET = {
+            "a", "b", "c", "d", "z", "A", "B", "C", "0", "1", "_", "-", ".", " ", "\t", "\n", "\r",
+            "\u00E9", "\u00FF", "\u0101", "\u0085", "\u2028", "\uD83D\uDE00", "\uD83D\uDE4F", "\uD83D\uDE50", "*",
+    };
+
+    private static List<String> inputs(long seed) {
+        List<String> inputs = new ArrayList<String>(Arrays.asList(ALPHABET));
+        inputs.addAll(Arrays.asList("", "abc", "abbb", "aaaaa", "aaaaaaaaaa", "abcd", "ab", "aab", "abb", "babb",
+                "ABC", "ab.cd-e_f", "a.b", "a\tb", "AB", "ABC", "A", "a\nb", "john.doe", "john..doe", " x ", "x\n"));
+        Random random = new Random(seed);
+        for (int i = 0; i < 400; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                input.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            inputs.add(input.toString());
+        }
+        return inputs;
+    }
+
+    @Test
+    public void matchesLikeJavaRegex() {
+        for (String regex : SUPPORTED) {
+            Pattern expected = Pattern.compile(regex);
+            LinearPattern actual = LinearPattern.compile(regex);
+            for (String input : inputs(regex.hashCode())) {
+                assertEquals("/" + regex + "/ on \"" + input + "\"", expected.matcher(input).matches(), actual.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void matchingIsRepeatable() {
+        LinearPattern pattern = LinearPattern.compile("(a|b)*abb");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pattern.matches("babaabb"));
+            assertFalse(pattern.matches("babaab"));
+        }
+    }
+
+    @Test
+    public void pathologicalPatternsStayFast() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append('a');
+        }
+        input.append('!');
+        assertFalse(LinearPattern.compile("(a|a)*").matches(input));
+        assertFalse(LinearPattern.compile("(a*)*b").matches(input));
+        assertFalse(LinearPattern.compile("(a+)+").matches(input));
+    }
+
+    @Test
+    public void unsupportedConstructsAreRejected() {
+        for (String regex : UNSUPPORTED) {
+            Pattern.compile(regex);
+            assertRejected(regex);
+        }
+    }
+
+    @Test
+    public void invalidPatternsAreRejected() {
+        for (String regex : INVALID) {
+            try {
+                Pattern.compile(regex);
+                fail("java.util.regex accepts /" + regex + "/");
+            } catch (PatternSyntaxException e) {
+                // expected
+            }
+            assertRejected(regex);
+        }
+    }
+
+    @Test
+    public void oversizedRepetitionIsRejected() {
+        assertRejected("(abcdefghij){100000}");
+    }
+
+    private static void assertRejected(String regex) {
+        try {
+            LinearPattern.compile(regex);
+            fail("Accepted /" + regex + "/");
+        } catch (PatternSyntaxException e) {
+            // expected
+        }
+    }
+}
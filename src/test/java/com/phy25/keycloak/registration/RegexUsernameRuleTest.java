@@ -0,0 +1,43 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RegexUsernameRuleTest {
+
+    @Test
+    public void unsupportedLinearPatternFailsClosed() {
+        assertSame(RegexUsernameRule.UsernamePattern.INVALID, RegexUsernameRule.compileUsernamePattern("(?!admin)[a-z]+", true, "8"));
+        assertSame(RegexUsernameRule.UsernamePattern.INVALID, RegexUsernameRule.compileUsernamePattern("(a+)+\\1", true, null));
+        // the same pattern is fine for java.util.regex when linear mode is off
+        RegexUsernameRule.UsernamePattern pattern = RegexUsernameRule.compileUsernamePattern("(?!admin)[a-z]+", false, "8");
+        assertTrue(pattern.matches("bob"));
+        assertFalse(pattern.matches("admin"));
+        assertFalse(pattern.matches("abcdefghi"));
+    }
+
+    @Test
+    public void supportedLinearPatternMatches() {
+        RegexUsernameRule.UsernamePattern pattern = RegexUsernameRule.compileUsernamePattern("[a-z]+", true, "8");
+        assertTrue(pattern.matches("bob"));
+        assertFalse(pattern.matches("Bob"));
+        assertFalse(pattern.matches("abcdefghi"));
+    }
+
+    @Test
+    public void invalidPatternFailsClosed() {
+        assertSame(RegexUsernameRule.UsernamePattern.INVALID, RegexUsernameRule.compileUsernamePattern("[a-z", false, null));
+        assertSame(RegexUsernameRule.UsernamePattern.INVALID, RegexUsernameRule.compileUsernamePattern("[a-z", true, null));
+        assertFalse(RegexUsernameRule.UsernamePattern.INVALID.matches("bob"));
+    }
+
+    @Test
+    public void emptyPatternDisablesCheck() {
+        assertNull(RegexUsernameRule.compileUsernamePattern("", true, null));
+        assertNull(RegexUsernameRule.compileUsernamePattern(null, false, null));
+    }
+}
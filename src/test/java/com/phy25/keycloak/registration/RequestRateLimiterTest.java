@@ -0,0 +1,102 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RequestRateLimiterTest {
+
+    private static final long START = TimeUnit.HOURS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static RequestRateLimiter limiter(String configId, int ipPerMinute, int identifierPerMinute) {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RequestRateLimiter.IP_LIMIT, Integer.toString(ipPerMinute));
+        config.put(RequestRateLimiter.IDENTIFIER_LIMIT, Integer.toString(identifierPerMinute));
+        return RequestRateLimiter.forConfig(configId, config, "");
+    }
+
+    @Test
+    public void burstUpToLimitThenRefill() {
+        RequestRateLimiter limiter = limiter("rate-burst", 60, 0);
+        for (int i = 0; i < 60; i++) {
+            assertNull("attempt " + i, limiter.acquire(START, "10.0.0.1"));
+        }
+        assertEquals(RequestRateLimiter.LIMITED_IP, limiter.acquire(START, "10.0.0.1"));
+        assertEquals(RequestRateLimiter.LIMITED_IP, limiter.acquire(START + SECOND / 2, "10.0.0.1"));
+
+        // one token per second comes back
+        assertNull(limiter.acquire(START + SECOND, "10.0.0.1"));
+        assertEquals(RequestRateLimiter.LIMITED_IP, limiter.acquire(START + SECOND, "10.0.0.1"));
+
+        // after a quiet minute the whole burst is available again, not more
+        long later = START + TimeUnit.MINUTES.toNanos(5);
+        for (int i = 0; i < 60; i++) {
+            assertNull("attempt " + i, limiter.acquire(later, "10.0.0.1"));
+        }
+        assertEquals(RequestRateLimiter.LIMITED_IP, limiter.acquire(later, "10.0.0.1"));
+    }
+
+    @Test
+    public void keysAreLimitedSeparately() {
+        RequestRateLimiter limiter = limiter("rate-keys", 2, 0);
+        assertNull(limiter.acquire(START, "10.0.0.1"));
+        assertNull(limiter.acquire(START, "10.0.0.1"));
+        assertEquals(RequestRateLimiter.LIMITED_IP, limiter.acquire(START, "10.0.0.1"));
+        for (int i = 2; i < 100; i++) {
+            assertNull(limiter.acquire(START, "10.0.0." + i));
+        }
+    }
+
+    @Test
+    public void identifiersIgnoreCaseAndNulls() {
+        RequestRateLimiter limiter = limiter("rate-identifier", 0, 1);
+        assertNull(limiter.acquire(START, "10.0.0.1", "JDoe", null));
+        assertEquals(RequestRateLimiter.LIMITED_IDENTIFIER, limiter.acquire(START, "10.0.0.2", " jdoe "));
+        assertNull(limiter.acquire(START, "10.0.0.2", "other"));
+        assertNull(limiter.acquire(START + TimeUnit.MINUTES.toNanos(1), "10.0.0.2", "jdoe"));
+    }
+
+    @Test
+    public void concurrentCallsTakeExactlyTheBurst() throws Exception {
+        RequestRateLimiter limiter = limiter("rate-concurrent", 100, 0);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // a fresh key per round, as the first tokens of a key are the most contended
+            for (int round = 0; round < 200; round++) {
+                String key = "10.1." + (round / 250) + "." + (round % 250);
+                CyclicBarrier start = new CyclicBarrier(threads);
+                AtomicInteger allowed = new AtomicInteger();
+                Future<?>[] futures = new Future<?>[threads];
+                for (int t = 0; t < threads; t++) {
+                    futures[t] = pool.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < 25; i++) {
+                            if (limiter.acquire(START, key) == null) {
+                                allowed.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    });
+                }
+                for (Future<?> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+                assertEquals(key, 100, allowed.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReservedUsernameFileTest {
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("reserved-username-test");
+        ReservedUsernameFile.setDirectory(dir);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private ReservedUsernameFile load(String content) throws IOException {
+        file = Files.createTempFile(dir, "reserved-usernames", ".txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return ReservedUsernameFile.forPath(file.toString());
+    }
+
+    @Test
+    public void matchesLinesCaseInsensitively() throws IOException {
+        ReservedUsernameFile reserved = load("# reserved\nRoot\n  admin \n\nsupport\r\n");
+        assertEquals(3, reserved.size());
+        assertTrue(reserved.contains("root"));
+        assertTrue(reserved.contains("ADMIN"));
+        assertTrue(reserved.contains("support"));
+        assertFalse(reserved.contains("# reserved"));
+        assertFalse(reserved.contains("roo"));
+        assertFalse(reserved.contains(null));
+    }
+
+    @Test
+    public void keepsSnapshotWhenFileIsTruncatedInPlace() throws IOException {
+        ReservedUsernameFile reserved = load("admin\nroot\n");
+        // waits for the first load
+        assertEquals(2, reserved.size());
+        Files.write(file, new byte[0]);
+        assertTrue(reserved.contains("root"));
+        assertTrue(reserved.contains("admin"));
+    }
+
+    @Test
+    public void resolvesRelativePaths() throws IOException {
+        load("admin\n");
+        ReservedUsernameFile reserved = ReservedUsernameFile.forPath(file.getFileName().toString());
+        assertTrue(reserved.contains("admin"));
+    }
+
+    @Test
+    public void refusesFilesOutsideDirectory() throws IOException {
+        assertNull(ReservedUsernameFile.forPath("../passwd"));
+        assertNull(ReservedUsernameFile.forPath(dir.getParent().resolve("passwd").toString()));
+        assertNull(ReservedUsernameFile.forPath("."));
+    }
+
+    @Test
+    public void foldsIndependentlyOfDefaultLocale() throws IOException {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            ReservedUsernameFile reserved = load("admin\n");
+            assertTrue(reserved.contains("ADMIN"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.phy25.keycloak.registration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class UnknownUserCacheTest {
+
+    private static UnknownUserCache cache(String configId) {
+        return UnknownUserCache.forConfig(configId, Collections.singletonMap(UnknownUserCache.TTL, "60"), "");
+    }
+
+    @Test
+    public void registrationDropsEntry() {
+        UnknownUserCache cache = cache("unknown-user-invalidate");
+        cache.putUnknown("realm", "jdoe", UnknownUserCache.version());
+        cache.putUnknown("realm", "other", UnknownUserCache.version());
+        assertTrue(cache.isUnknown("realm", "JDoe"));
+
+        UnknownUserCache.invalidate("realm", "jdoe");
+        assertFalse(cache.isUnknown("realm", "jdoe"));
+        assertTrue(cache.isUnknown("realm", "other"));
+
+        UnknownUserCache.invalidateAll();
+        assertFalse(cache.isUnknown("realm", "other"));
+    }
+
+    @Test
+    public void missRacingInvalidationIsNotStored() {
+        UnknownUserCache cache = cache("unknown-user-race");
+        long version = UnknownUserCache.version();
+        UnknownUserCache.invalidate("realm", "jdoe");
+        cache.putUnknown("realm", "jdoe", version);
+        assertFalse(cache.isUnknown("realm", "jdoe"));
+    }
+}